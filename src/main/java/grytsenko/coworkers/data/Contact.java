@@ -17,15 +17,42 @@ package grytsenko.coworkers.data;
 
 import grytsenko.coworkers.web.Employee;
 
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import android.content.ContentValues;
+
 /**
  * Contact for employee.
  */
 public final class Contact {
 
+    /**
+     * Order of unique identifiers, in which contacts are read by
+     * {@link ContactsProvider}. Identifiers are compared by code points, like
+     * SQLite compares them.
+     */
+    public static final Comparator<String> UID_ORDER = new Comparator<String>() {
+
+        @Override
+        public int compare(String first, String second) {
+            int length = Math.min(first.length(), second.length());
+            int i = 0;
+            while (i < length) {
+                int firstChar = first.codePointAt(i);
+                int secondChar = second.codePointAt(i);
+                if (firstChar != secondChar) {
+                    return firstChar < secondChar ? -1 : 1;
+                }
+                i += Character.charCount(firstChar);
+            }
+            return first.length() - second.length();
+        }
+
+    };
+
     /**
      * Maps contacts by unique identifier of employee.
      * 
@@ -45,8 +72,12 @@ public final class Contact {
     private String uid;
     private long id;
 
+    private Map<String, ContentValues> data;
+    private Map<String, String> fingerprints;
+    private ContactPhoto photo;
+
     /**
-     * Creates a contact.
+     * Creates a contact without data.
      * 
      * @param uid
      *            the unique identifier of employee.
@@ -54,8 +85,49 @@ public final class Contact {
      *            the identifier assigned by Android.
      */
     public Contact(String uid, long id) {
+        this(uid, id, new HashMap<String, ContentValues>(), null);
+    }
+
+    /**
+     * Creates a contact.
+     * 
+     * @param uid
+     *            the unique identifier of employee.
+     * @param id
+     *            the identifier assigned by Android.
+     * @param data
+     *            the data of contact by type of data.
+     * @param photo
+     *            the photo of contact (can be <code>null</code>).
+     */
+    public Contact(String uid, long id, Map<String, ContentValues> data,
+            ContactPhoto photo) {
+        this(uid, id, data, new HashMap<String, String>(), photo);
+    }
+
+    /**
+     * Creates a contact, which data is known by fingerprints.
+     * 
+     * @param uid
+     *            the unique identifier of employee.
+     * @param id
+     *            the identifier assigned by Android.
+     * @param data
+     *            the data of contact by type of data.
+     * @param fingerprints
+     *            the fingerprints of data by type of data.
+     * @param photo
+     *            the photo of contact (can be <code>null</code>).
+     * 
+     * @see Fingerprint
+     */
+    public Contact(String uid, long id, Map<String, ContentValues> data,
+            Map<String, String> fingerprints, ContactPhoto photo) {
         this.uid = uid;
         this.id = id;
+        this.data = data;
+        this.fingerprints = fingerprints;
+        this.photo = photo;
     }
 
     /**
@@ -74,4 +146,60 @@ public final class Contact {
         return id;
     }
 
+    /**
+     * Returns the data of contact.
+     * 
+     * @param mime
+     *            the type of data.
+     * 
+     * @return the stored values or <code>null</code> if contact has no such
+     *         data.
+     */
+    public ContentValues getData(String mime) {
+        return data.get(mime);
+    }
+
+    /**
+     * Returns the fingerprint of data, that was written by sync.
+     * 
+     * @param mime
+     *            the type of data.
+     * 
+     * @return the fingerprint or <code>null</code> if it is unknown.
+     */
+    public String getFingerprint(String mime) {
+        return fingerprints.get(mime);
+    }
+
+    /**
+     * Returns fingerprints of data, that was written by sync.
+     * 
+     * @return the fingerprints by type of data.
+     */
+    public Map<String, String> getFingerprints() {
+        return fingerprints;
+    }
+
+    /**
+     * Checks that contact has data of the specified type.
+     * 
+     * @param mime
+     *            the type of data.
+     * 
+     * @return <code>true</code> if data was read or written by sync and
+     *         <code>false</code> otherwise.
+     */
+    public boolean hasData(String mime) {
+        return data.containsKey(mime) || fingerprints.containsKey(mime);
+    }
+
+    /**
+     * Returns the photo of contact.
+     * 
+     * @return the photo or <code>null</code> if contact has no photo.
+     */
+    public ContactPhoto getPhoto() {
+        return photo;
+    }
+
 }
@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2013 Anton Grytsenko (anthony.grytsenko@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grytsenko.coworkers.data;
+
+import static grytsenko.coworkers.data.DataProvider.readBoolean;
+import static grytsenko.coworkers.data.DataProvider.readLong;
+import static grytsenko.coworkers.data.DataProvider.readString;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.provider.ContactsContract.CommonDataKinds.Photo;
+import android.provider.ContactsContract.Data;
+import android.provider.ContactsContract.RawContactsEntity;
+
+/**
+ * Reads contacts one by one from rows of {@link RawContactsEntity}, so only
+ * the current contact is kept in memory.
+ * 
+ * <p>
+ * Rows of each contact must be adjacent.
+ */
+public final class ContactCursor implements ContactIterator {
+
+    /**
+     * The columns, that are read by cursor.
+     */
+    static final String[] PROJECTION = new String[] { RawContactsEntity._ID,
+            RawContactsEntity.SYNC1, RawContactsEntity.MIMETYPE, Data.DATA1,
+            Data.DATA2, Data.DATA3, Data.DATA4, Data.DATA5, Data.DATA9 };
+
+    /**
+     * The columns, that contain data of contacts.
+     */
+    private static final String[] DATA_COLUMNS = new String[] { Data.DATA1,
+            Data.DATA2, Data.DATA3, Data.DATA4, Data.DATA5, Data.DATA9 };
+
+    private final Cursor cursor;
+    private boolean hasRow;
+
+    ContactCursor(Cursor cursor) {
+        this.cursor = cursor;
+        this.hasRow = cursor != null && cursor.moveToFirst();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return hasRow;
+    }
+
+    @Override
+    public Contact next() {
+        if (!hasRow) {
+            throw new NoSuchElementException();
+        }
+
+        long id = readLong(cursor, RawContactsEntity._ID);
+        String uid = readString(cursor, RawContactsEntity.SYNC1);
+        Map<String, ContentValues> data = new HashMap<String, ContentValues>();
+        ContactPhoto photo = null;
+
+        do {
+            String mime = readString(cursor, RawContactsEntity.MIMETYPE);
+            if (Photo.CONTENT_ITEM_TYPE.equals(mime)) {
+                String url = readString(cursor, ContactPhoto.URL);
+                boolean synced = readBoolean(cursor, ContactPhoto.IS_SYNCED);
+                photo = new ContactPhoto(url, synced);
+            } else if (mime != null) {
+                ContentValues values = new ContentValues();
+                for (String column : DATA_COLUMNS) {
+                    values.put(column, readString(cursor, column));
+                }
+                data.put(mime, values);
+            }
+
+            hasRow = cursor.moveToNext();
+        } while (hasRow && readLong(cursor, RawContactsEntity._ID) == id);
+
+        return new Contact(uid, id, data, photo);
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() {
+        if (cursor != null) {
+            cursor.close();
+        }
+    }
+
+}
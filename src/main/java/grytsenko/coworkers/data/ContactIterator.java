@@ -0,0 +1,33 @@
+/**
+ * Copyright (C) 2013 Anton Grytsenko (anthony.grytsenko@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grytsenko.coworkers.data;
+
+import java.util.Iterator;
+
+/**
+ * Iterates over contacts, that are read one by one.
+ * 
+ * <p>
+ * Iterator must be closed after use.
+ */
+public interface ContactIterator extends Iterator<Contact> {
+
+    /**
+     * Releases resources of iterator.
+     */
+    void close();
+
+}
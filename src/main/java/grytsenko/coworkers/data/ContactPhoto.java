@@ -42,6 +42,7 @@ public final class ContactPhoto {
 
     private String url;
     private boolean synced;
+    private String hash;
 
     /**
      * Creates a photo.
@@ -52,8 +53,24 @@ public final class ContactPhoto {
      *            the status of photo.
      */
     public ContactPhoto(String url, boolean synced) {
+        this(url, synced, null);
+    }
+
+    /**
+     * Creates a photo, which image is known by hash.
+     * 
+     * @param url
+     *            the URL of photo.
+     * @param synced
+     *            the status of photo.
+     * @param hash
+     *            the hash of image, that was written by sync (can be
+     *            <code>null</code>).
+     */
+    public ContactPhoto(String url, boolean synced, String hash) {
         this.url = url;
         this.synced = synced;
+        this.hash = hash;
     }
 
     /**
@@ -75,6 +92,15 @@ public final class ContactPhoto {
         return synced;
     }
 
+    /**
+     * Gets the hash of image.
+     * 
+     * @return the hash or <code>null</code> if it is unknown.
+     */
+    public String getHash() {
+        return hash;
+    }
+
     /**
      * Obtains data about photo for {@link ContentResolver}.
      * 
@@ -18,7 +18,12 @@ package grytsenko.coworkers.data;
 import grytsenko.coworkers.web.Employee;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import android.accounts.Account;
 import android.content.ContentProviderOperation;
@@ -28,7 +33,6 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.net.Uri;
-import android.provider.ContactsContract;
 import android.provider.ContactsContract.CommonDataKinds.Email;
 import android.provider.ContactsContract.CommonDataKinds.GroupMembership;
 import android.provider.ContactsContract.CommonDataKinds.Im;
@@ -38,6 +42,8 @@ import android.provider.ContactsContract.CommonDataKinds.Photo;
 import android.provider.ContactsContract.CommonDataKinds.StructuredName;
 import android.provider.ContactsContract.Data;
 import android.provider.ContactsContract.RawContacts;
+import android.provider.ContactsContract.RawContactsEntity;
+import android.text.TextUtils;
 
 /**
  * Provides access to contacts.
@@ -80,6 +86,145 @@ public class ContactsProvider extends DataProvider {
         });
     }
 
+    /**
+     * Finds all contacts of account together with their data.
+     * 
+     * @param account
+     *            the current user account.
+     * 
+     * @return the found contacts.
+     */
+    public List<Contact> findByAccount(Account account) {
+        List<Contact> contacts = new ArrayList<Contact>();
+
+        ContactCursor cursor = openByAccount(account);
+        try {
+            while (cursor.hasNext()) {
+                contacts.add(cursor.next());
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return contacts;
+    }
+
+    /**
+     * Opens contacts of account together with their data. Contacts are read
+     * in order of their unique identifiers, see {@link Contact#UID_ORDER}.
+     * 
+     * @param account
+     *            the current user account.
+     * 
+     * @return the cursor, that should be closed after use.
+     */
+    public ContactCursor openByAccount(Account account) {
+        String selection = RawContacts.ACCOUNT_NAME + "=? and "
+                + RawContacts.ACCOUNT_TYPE + "=? and "
+                + RawContactsEntity.DELETED + "=0 and "
+                + RawContactsEntity.SYNC1 + " is not null";
+        String[] selectionArgs = new String[] { account.name, account.type };
+        String sortOrder = RawContactsEntity.SYNC1 + ", "
+                + RawContactsEntity._ID;
+        Cursor cursor = resolver.query(RawContactsEntity.CONTENT_URI,
+                ContactCursor.PROJECTION, selection, selectionArgs, sortOrder);
+        return new ContactCursor(cursor);
+    }
+
+    /**
+     * Finds identifiers of all contacts of account, that were created by
+     * sync.
+     * 
+     * @param account
+     *            the current user account.
+     * 
+     * @return the identifiers of contacts.
+     */
+    public Set<Long> findIds(Account account) {
+        String[] projection = new String[] { RawContacts._ID };
+        String selection = RawContacts.ACCOUNT_NAME + "=? and "
+                + RawContacts.ACCOUNT_TYPE + "=? and " + RawContacts.DELETED
+                + "=0 and " + RawContacts.SYNC1 + " is not null";
+        String[] selectionArgs = new String[] { account.name, account.type };
+        Cursor cursor = resolver.query(RawContacts.CONTENT_URI, projection,
+                selection, selectionArgs, null);
+
+        return new HashSet<Long>(readObjects(cursor, new Reader<Long>() {
+            @Override
+            public Long read(Cursor cursor) {
+                return readLong(cursor, RawContacts._ID);
+            }
+        }));
+    }
+
+    /**
+     * Finds the value of organization for all contacts of account by single
+     * query.
+     * 
+     * @param account
+     *            the current user account.
+     * @param column
+     *            the column of {@link Organization}, for example
+     *            {@link Organization#DEPARTMENT}.
+     * 
+     * @return the non-empty values by identifier of contact.
+     */
+    public Map<Long, String> findOrganizations(Account account, String column) {
+        String[] projection = new String[] { Data.RAW_CONTACT_ID, column };
+        String selection = RawContacts.ACCOUNT_NAME + "=? and "
+                + RawContacts.ACCOUNT_TYPE + "=? and " + Data.MIMETYPE
+                + "=? and " + column + " is not null";
+        String[] selectionArgs = new String[] { account.name, account.type,
+                Organization.CONTENT_ITEM_TYPE };
+        Cursor cursor = resolver.query(Data.CONTENT_URI, projection, selection,
+                selectionArgs, null);
+        if (cursor == null) {
+            throw new DataException("Organizations not found.");
+        }
+
+        Map<Long, String> values = new HashMap<Long, String>();
+        try {
+            while (cursor.moveToNext()) {
+                String value = readString(cursor, column);
+                if (!TextUtils.isEmpty(value)) {
+                    values.put(readLong(cursor, Data.RAW_CONTACT_ID), value);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return values;
+    }
+
+    /**
+     * Finds contact of employee together with its data.
+     * 
+     * @param account
+     *            the current user account.
+     * @param uid
+     *            the unique identifier of employee.
+     * 
+     * @return the found contact or <code>null</code> if contact not found.
+     */
+    public Contact findByUid(Account account, String uid) {
+        String selection = RawContacts.ACCOUNT_NAME + "=? and "
+                + RawContacts.ACCOUNT_TYPE + "=? and "
+                + RawContactsEntity.DELETED + "=0 and "
+                + RawContactsEntity.SYNC1 + "=?";
+        String[] selectionArgs = new String[] { account.name, account.type,
+                uid };
+        Cursor cursor = resolver.query(RawContactsEntity.CONTENT_URI,
+                ContactCursor.PROJECTION, selection, selectionArgs,
+                RawContactsEntity._ID);
+
+        ContactCursor contacts = new ContactCursor(cursor);
+        try {
+            return contacts.hasNext() ? contacts.next() : null;
+        } finally {
+            contacts.close();
+        }
+    }
+
     /**
      * Finds contact.
      * 
@@ -118,13 +263,46 @@ public class ContactsProvider extends DataProvider {
      */
     public Contact createContact(Account account, Group group,
             Employee employee, boolean preferNativeName) {
+        return createContact(account, group, employee, preferNativeName, false);
+    }
+
+    /**
+     * Creates contact.
+     * 
+     * <p>
+     * If aggregation is suspended, then contacts provider does not look for
+     * other contacts of the same person. It is cheaper when many contacts are
+     * created, see {@link #resumeAggregation(Account)}.
+     * 
+     * @param account
+     *            the current user account.
+     * @param group
+     *            the group for contact.
+     * @param employee
+     *            the data about employee.
+     * @param preferNativeName
+     *            indicates that name in native language is preferred.
+     * @param suspendAggregation
+     *            indicates that contact should not be aggregated yet.
+     * 
+     * @return the created contact.
+     */
+    public Contact createContact(Account account, Group group,
+            Employee employee, boolean preferNativeName,
+            boolean suspendAggregation) {
         String uid = employee.getUid();
 
         ArrayList<ContentProviderOperation> batch = new ArrayList<ContentProviderOperation>();
-        batch.add(ContentProviderOperation.newInsert(RawContacts.CONTENT_URI)
+        Builder builder = ContentProviderOperation
+                .newInsert(asSyncAdapter(RawContacts.CONTENT_URI))
                 .withValue(RawContacts.ACCOUNT_NAME, account.name)
                 .withValue(RawContacts.ACCOUNT_TYPE, account.type)
-                .withValue(RawContacts.SYNC1, uid).build());
+                .withValue(RawContacts.SYNC1, uid);
+        if (suspendAggregation) {
+            builder.withValue(RawContacts.AGGREGATION_MODE,
+                    RawContacts.AGGREGATION_MODE_SUSPENDED);
+        }
+        batch.add(builder.build());
 
         batch.add(doInsert(StructuredName.CONTENT_ITEM_TYPE,
                 employee.getFullName(preferNativeName)));
@@ -146,7 +324,7 @@ public class ContactsProvider extends DataProvider {
     }
 
     /**
-     * Updates contact.
+     * Updates the specified types of data of contact.
      * 
      * @param contact
      *            the contact to update.
@@ -154,25 +332,31 @@ public class ContactsProvider extends DataProvider {
      *            the data about employee.
      * @param preferNativeName
      *            indicates that name in native language is preferred.
+     * @param kinds
+     *            the types of data, that should be updated.
      */
     public void updateContact(Contact contact, Employee employee,
-            boolean preferNativeName) {
+            boolean preferNativeName, Collection<String> kinds) {
         long id = contact.getId();
 
         ArrayList<ContentProviderOperation> batch = new ArrayList<ContentProviderOperation>();
 
-        batch.add(doUpdate(id, StructuredName.CONTENT_ITEM_TYPE,
-                employee.getFullName(preferNativeName)));
-        batch.add(doUpdate(id, Organization.CONTENT_ITEM_TYPE,
-                employee.getPosition()));
-
-        batch.add(doUpdate(id, Email.CONTENT_ITEM_TYPE, employee.getEmail()));
-        batch.add(doUpdate(id, Phone.CONTENT_ITEM_TYPE, employee.getMobile()));
-        batch.add(doUpdate(id, Im.CONTENT_ITEM_TYPE, employee.getSkype()));
+        for (String mime : kinds) {
+            if (Photo.CONTENT_ITEM_TYPE.equals(mime)) {
+                ContactPhoto photo = new ContactPhoto(employee.getPhoto(),
+                        false);
+                batch.add(prepareUpdate(id, mime, contact.getPhoto() != null)
+                        .withValues(photo.getContent()).build());
+            } else {
+                batch.add(prepareUpdate(id, mime, contact.hasData(mime))
+                        .withValues(employee.getContent(mime, preferNativeName))
+                        .build());
+            }
+        }
 
-        ContactPhoto photo = findPhoto(contact);
-        photo.update(employee.getPhoto());
-        batch.add(doUpdate(id, Photo.CONTENT_ITEM_TYPE, photo.getContent()));
+        if (batch.isEmpty()) {
+            return;
+        }
 
         updateObject(batch);
     }
@@ -187,16 +371,162 @@ public class ContactsProvider extends DataProvider {
         long id = contact.getId();
 
         ArrayList<ContentProviderOperation> batch = new ArrayList<ContentProviderOperation>();
-        Uri contactUri = ContentUris
-                .withAppendedId(RawContacts.CONTENT_URI, id)
-                .buildUpon()
-                .appendQueryParameter(ContactsContract.CALLER_IS_SYNCADAPTER,
-                        "true").build();
+        Uri contactUri = asSyncAdapter(ContentUris.withAppendedId(
+                RawContacts.CONTENT_URI, id));
         batch.add(ContentProviderOperation.newDelete(contactUri).build());
 
         updateObject(batch);
     }
 
+    /**
+     * Removes contacts by single operation. Each contact is passed as
+     * parameter of query, so the number of contacts should be limited.
+     * 
+     * @param contacts
+     *            the contacts to remove.
+     * 
+     * @return the number of removed contacts.
+     */
+    public int removeContacts(List<Contact> contacts) {
+        StringBuilder selection = new StringBuilder(RawContacts._ID);
+        selection.append(" in (");
+        String[] selectionArgs = new String[contacts.size()];
+        for (int i = 0; i < selectionArgs.length; ++i) {
+            selection.append(i > 0 ? ",?" : "?");
+            selectionArgs[i] = Long.toString(contacts.get(i).getId());
+        }
+        selection.append(')');
+
+        return delete(asSyncAdapter(RawContacts.CONTENT_URI),
+                selection.toString(), selectionArgs);
+    }
+
+    /**
+     * Purges contacts of account, that were removed by user. Contacts
+     * provider keeps such contacts until they are purged by sync.
+     * 
+     * @param account
+     *            the current user account.
+     * 
+     * @return the number of purged contacts.
+     */
+    public int purgeDeleted(Account account) {
+        String selection = RawContacts.ACCOUNT_NAME + "=? and "
+                + RawContacts.ACCOUNT_TYPE + "=? and " + RawContacts.DELETED
+                + "=1";
+        String[] selectionArgs = new String[] { account.name, account.type };
+        return delete(asSyncAdapter(RawContacts.CONTENT_URI), selection,
+                selectionArgs);
+    }
+
+    private int delete(Uri uri, String selection, String[] selectionArgs) {
+        try {
+            return resolver.delete(uri, selection, selectionArgs);
+        } catch (Exception exception) {
+            throw new DataException("Contacts not removed.", exception);
+        }
+    }
+
+    /**
+     * Finds contacts of account, that were changed or removed by user. Sync
+     * does not mark contacts as dirty, so other contacts are up to date.
+     * 
+     * @param account
+     *            the current user account.
+     * 
+     * @return the found contacts.
+     */
+    public List<DirtyContact> findDirty(Account account) {
+        String[] projection = new String[] { RawContacts._ID,
+                RawContacts.SYNC1, RawContacts.VERSION, RawContacts.DELETED };
+        String selection = RawContacts.ACCOUNT_NAME + "=? and "
+                + RawContacts.ACCOUNT_TYPE + "=? and (" + RawContacts.DIRTY
+                + "=1 or " + RawContacts.DELETED + "=1)";
+        String[] selectionArgs = new String[] { account.name, account.type };
+        Cursor cursor = resolver.query(RawContacts.CONTENT_URI, projection,
+                selection, selectionArgs, null);
+
+        return readObjects(cursor, new Reader<DirtyContact>() {
+            @Override
+            public DirtyContact read(Cursor cursor) {
+                String uid = readString(cursor, RawContacts.SYNC1);
+                long id = readLong(cursor, RawContacts._ID);
+                long version = readLong(cursor, RawContacts.VERSION);
+                boolean deleted = readLong(cursor, RawContacts.DELETED) != 0;
+                return new DirtyContact(uid, id, version, deleted);
+            }
+        });
+    }
+
+    /**
+     * Marks contact as up to date, if it was not changed since it was found.
+     * 
+     * @param contact
+     *            the dirty contact.
+     * 
+     * @return <code>true</code> if contact was marked and <code>false</code>
+     *         if it was changed again.
+     */
+    public boolean clearDirty(DirtyContact contact) {
+        String selection = RawContacts.VERSION + "=?";
+        String[] selectionArgs = new String[] { Long.toString(contact
+                .getVersion()) };
+        Uri contactUri = asSyncAdapter(ContentUris.withAppendedId(
+                RawContacts.CONTENT_URI, contact.getId()));
+        return clearDirty(contactUri, selection, selectionArgs) > 0;
+    }
+
+    /**
+     * Marks all contacts of account as up to date.
+     * 
+     * @param account
+     *            the current user account.
+     */
+    public void clearDirty(Account account) {
+        String selection = RawContacts.ACCOUNT_NAME + "=? and "
+                + RawContacts.ACCOUNT_TYPE + "=? and " + RawContacts.DIRTY
+                + "=1";
+        String[] selectionArgs = new String[] { account.name, account.type };
+        clearDirty(asSyncAdapter(RawContacts.CONTENT_URI), selection,
+                selectionArgs);
+    }
+
+    private int clearDirty(Uri uri, String selection, String[] selectionArgs) {
+        ContentValues values = new ContentValues();
+        values.put(RawContacts.DIRTY, 0);
+        try {
+            return resolver.update(uri, values, selection, selectionArgs);
+        } catch (Exception exception) {
+            throw new DataException("Contact not updated.", exception);
+        }
+    }
+
+    /**
+     * Resumes aggregation of contacts of account, that were created while
+     * aggregation was suspended. All contacts are resumed by single operation.
+     * 
+     * @param account
+     *            the current user account.
+     * 
+     * @return the number of resumed contacts.
+     */
+    public int resumeAggregation(Account account) {
+        ContentValues values = new ContentValues();
+        values.put(RawContacts.AGGREGATION_MODE,
+                RawContacts.AGGREGATION_MODE_DEFAULT);
+        String selection = RawContacts.ACCOUNT_NAME + "=? and "
+                + RawContacts.ACCOUNT_TYPE + "=? and "
+                + RawContacts.AGGREGATION_MODE + "=?";
+        String[] selectionArgs = new String[] { account.name, account.type,
+                Integer.toString(RawContacts.AGGREGATION_MODE_SUSPENDED) };
+        try {
+            return resolver.update(asSyncAdapter(RawContacts.CONTENT_URI),
+                    values, selection, selectionArgs);
+        } catch (Exception exception) {
+            throw new DataException("Aggregation not resumed.", exception);
+        }
+    }
+
     /**
      * Finds photo for contact.
      * 
@@ -245,7 +575,8 @@ public class ContactsProvider extends DataProvider {
     }
 
     private Builder prepareInsert(String mime) {
-        return ContentProviderOperation.newInsert(Data.CONTENT_URI)
+        return ContentProviderOperation
+                .newInsert(asSyncAdapter(Data.CONTENT_URI))
                 .withValue(Data.MIMETYPE, mime)
                 .withValueBackReference(Data.RAW_CONTACT_ID, 0);
     }
@@ -268,14 +599,8 @@ public class ContactsProvider extends DataProvider {
                 selectionArgs, null);
 
         try {
-            if (cursor == null || !cursor.moveToFirst()) {
-                return ContentProviderOperation.newInsert(Data.CONTENT_URI)
-                        .withValue(Data.MIMETYPE, mime)
-                        .withValue(Data.RAW_CONTACT_ID, id);
-            }
-
-            return ContentProviderOperation.newUpdate(Data.CONTENT_URI)
-                    .withSelection(selection, selectionArgs);
+            return prepareUpdate(id, mime, cursor != null
+                    && cursor.moveToFirst());
         } finally {
             if (cursor != null) {
                 cursor.close();
@@ -283,14 +608,25 @@ public class ContactsProvider extends DataProvider {
         }
     }
 
+    private Builder prepareUpdate(long id, String mime, boolean exists) {
+        if (!exists) {
+            return ContentProviderOperation
+                    .newInsert(asSyncAdapter(Data.CONTENT_URI))
+                    .withValue(Data.MIMETYPE, mime)
+                    .withValue(Data.RAW_CONTACT_ID, id);
+        }
+
+        String selection = Data.RAW_CONTACT_ID + "=? and " + Data.MIMETYPE
+                + "=?";
+        String[] selectionArgs = new String[] { Long.toString(id), mime };
+        return ContentProviderOperation
+                .newUpdate(asSyncAdapter(Data.CONTENT_URI))
+                .withSelection(selection, selectionArgs);
+    }
+
     private <T> ContentProviderOperation doUpdate(long id, String mime,
             String key, T value) {
         return prepareUpdate(id, mime).withValue(key, value).build();
     }
 
-    private ContentProviderOperation doUpdate(long id, String mime,
-            ContentValues values) {
-        return prepareUpdate(id, mime).withValues(values).build();
-    }
-
 }
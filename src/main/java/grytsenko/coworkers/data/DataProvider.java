@@ -26,6 +26,7 @@ import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.Context;
 import android.database.Cursor;
+import android.net.Uri;
 import android.provider.ContactsContract;
 import android.util.Log;
 
@@ -172,6 +173,21 @@ public abstract class DataProvider {
         return Boolean.parseBoolean(readString(cursor, column));
     }
 
+    /**
+     * Marks URI as used by sync adapter, so contacts provider does not mark
+     * changed rows as dirty.
+     * 
+     * @param uri
+     *            the URI of data.
+     * 
+     * @return the marked URI.
+     */
+    protected static Uri asSyncAdapter(Uri uri) {
+        return uri.buildUpon()
+                .appendQueryParameter(ContactsContract.CALLER_IS_SYNCADAPTER,
+                        "true").build();
+    }
+
     protected final ContentResolver resolver;
 
     /**
@@ -0,0 +1,75 @@
+/**
+ * Copyright (C) 2013 Anton Grytsenko (anthony.grytsenko@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grytsenko.coworkers.data;
+
+/**
+ * Contact, that was changed or removed outside of sync.
+ */
+public final class DirtyContact {
+
+    private String uid;
+    private long id;
+    private long version;
+    private boolean deleted;
+
+    /**
+     * Creates a dirty contact.
+     * 
+     * @param uid
+     *            the unique identifier of employee (can be <code>null</code>).
+     * @param id
+     *            the identifier assigned by Android.
+     * @param version
+     *            the version of raw contact, when it was found.
+     * @param deleted
+     *            indicates that contact was removed by user.
+     */
+    public DirtyContact(String uid, long id, long version, boolean deleted) {
+        this.uid = uid;
+        this.id = id;
+        this.version = version;
+        this.deleted = deleted;
+    }
+
+    /**
+     * Returns the unique identifier of employee.
+     */
+    public String getUid() {
+        return uid;
+    }
+
+    /**
+     * Returns the identifier of contact assigned by Android.
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Returns the version of raw contact, when it was found.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Checks that contact was removed by user.
+     */
+    public boolean isDeleted() {
+        return deleted;
+    }
+
+}
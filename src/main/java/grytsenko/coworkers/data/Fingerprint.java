@@ -0,0 +1,90 @@
+/**
+ * Copyright (C) 2013 Anton Grytsenko (anthony.grytsenko@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grytsenko.coworkers.data;
+
+import java.util.Map.Entry;
+
+import android.content.ContentValues;
+
+/**
+ * Computes fingerprints of data, so data can be compared with data, that was
+ * written before, without reading it from contacts provider. Fingerprints are
+ * not cryptographic.
+ */
+public final class Fingerprint {
+
+    private static final long OFFSET = 0xcbf29ce484222325L;
+    private static final long PRIME = 0x100000001b3L;
+
+    private static final int NULL = 0;
+    private static final int NOT_NULL = 1;
+
+    /**
+     * Computes fingerprint of data. Order of values does not matter.
+     * 
+     * @param values
+     *            the set of values.
+     * 
+     * @return the fingerprint.
+     */
+    public static String of(ContentValues values) {
+        long fingerprint = 0;
+        for (Entry<String, Object> entry : values.valueSet()) {
+            long hash = hash(OFFSET, entry.getKey());
+
+            Object value = entry.getValue();
+            if (value == null) {
+                hash = hash(hash, NULL);
+            } else {
+                hash = hash(hash(hash, NOT_NULL), value.toString());
+            }
+
+            fingerprint += hash;
+        }
+        return Long.toHexString(fingerprint);
+    }
+
+    /**
+     * Computes fingerprint of binary data.
+     * 
+     * @param data
+     *            the data.
+     * 
+     * @return the fingerprint.
+     */
+    public static String of(byte[] data) {
+        long hash = OFFSET;
+        for (byte b : data) {
+            hash = hash(hash, b & 0xff);
+        }
+        return Long.toHexString(hash);
+    }
+
+    private static long hash(long hash, String value) {
+        for (int i = 0; i < value.length(); ++i) {
+            hash = hash(hash, value.charAt(i));
+        }
+        return hash;
+    }
+
+    private static long hash(long hash, int value) {
+        return (hash ^ value) * PRIME;
+    }
+
+    private Fingerprint() {
+    }
+
+}
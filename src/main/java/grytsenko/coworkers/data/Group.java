@@ -22,6 +22,7 @@ public final class Group {
 
     private String uid;
     private long id;
+    private String title;
 
     /**
      * Creates a group.
@@ -32,8 +33,23 @@ public final class Group {
      *            the identifier assigned by Android.
      */
     public Group(String uid, long id) {
+        this(uid, id, null);
+    }
+
+    /**
+     * Creates a group.
+     * 
+     * @param uid
+     *            the unique identifier of group.
+     * @param id
+     *            the identifier assigned by Android.
+     * @param title
+     *            the title of group.
+     */
+    public Group(String uid, long id, String title) {
         this.uid = uid;
         this.id = id;
+        this.title = title;
     }
 
     /**
@@ -50,4 +66,13 @@ public final class Group {
         return id;
     }
 
+    /**
+     * Returns the title of group.
+     * 
+     * @return the title or <code>null</code> if it was not read.
+     */
+    public String getTitle() {
+        return title;
+    }
+
 }
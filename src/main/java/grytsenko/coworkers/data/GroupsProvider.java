@@ -18,13 +18,23 @@ package grytsenko.coworkers.data;
 import static java.text.MessageFormat.format;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import android.accounts.Account;
 import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.Context;
 import android.database.Cursor;
 import android.net.Uri;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.CommonDataKinds.GroupMembership;
+import android.provider.ContactsContract.Data;
 import android.provider.ContactsContract.Groups;
 import android.util.Log;
 
@@ -35,6 +45,11 @@ public class GroupsProvider extends DataProvider {
 
     private static final String TAG = GroupsProvider.class.getName();
 
+    /**
+     * The maximum number of operations, that are executed by single batch.
+     */
+    private static final int BATCH_SIZE = 100;
+
     /**
      * Creates provider.
      * 
@@ -58,7 +73,8 @@ public class GroupsProvider extends DataProvider {
     public Group findByUid(Account account, final String uid) {
         String[] projection = new String[] { Groups._ID, Groups.TITLE };
         String selection = Groups.SYNC1 + "=? and " + Groups.ACCOUNT_NAME
-                + "=? and " + Groups.ACCOUNT_TYPE + "=?";
+                + "=? and " + Groups.ACCOUNT_TYPE + "=? and " + Groups.DELETED
+                + "=0";
         String[] selectionArgs = new String[] { uid, account.name, account.type };
         Cursor cursor = resolver.query(Groups.CONTENT_URI, projection,
                 selection, selectionArgs, null);
@@ -67,11 +83,110 @@ public class GroupsProvider extends DataProvider {
             @Override
             public Group read(Cursor cursor) {
                 long id = readLong(cursor, Groups._ID);
-                return new Group(uid, id);
+                String title = readString(cursor, Groups.TITLE);
+                return new Group(uid, id, title);
             }
         });
     }
 
+    /**
+     * Finds groups of account, which identifiers start with prefix.
+     * 
+     * @param account
+     *            the current user account.
+     * @param prefix
+     *            the prefix of identifiers.
+     * 
+     * @return the found groups by identifier.
+     */
+    public Map<String, Group> findByPrefix(Account account, String prefix) {
+        String[] projection = new String[] { Groups._ID, Groups.SYNC1 };
+        String selection = "substr(" + Groups.SYNC1 + ",1,"
+                + prefix.length() + ")=? and " + Groups.ACCOUNT_NAME
+                + "=? and " + Groups.ACCOUNT_TYPE + "=? and " + Groups.DELETED
+                + "=0";
+        String[] selectionArgs = new String[] { prefix, account.name,
+                account.type };
+        Cursor cursor = resolver.query(Groups.CONTENT_URI, projection,
+                selection, selectionArgs, null);
+
+        Map<String, Group> groups = new HashMap<String, Group>();
+        for (Group group : readObjects(cursor, new Reader<Group>() {
+            @Override
+            public Group read(Cursor cursor) {
+                long id = readLong(cursor, Groups._ID);
+                return new Group(readString(cursor, Groups.SYNC1), id);
+            }
+        })) {
+            groups.put(group.getUid(), group);
+        }
+        return groups;
+    }
+
+    /**
+     * Creates groups by single batch.
+     * 
+     * @param account
+     *            the current user account.
+     * @param titles
+     *            the titles of groups by identifier.
+     * 
+     * @return the created groups by identifier.
+     */
+    public Map<String, Group> createGroups(Account account,
+            Map<String, String> titles) {
+        Log.d(TAG, format("Create {0} groups.", titles.size()));
+
+        List<String> uids = new ArrayList<String>(titles.keySet());
+        ArrayList<ContentProviderOperation> batch = new ArrayList<ContentProviderOperation>();
+        for (String uid : uids) {
+            batch.add(doInsert(account, uid, titles.get(uid)));
+        }
+
+        ContentProviderResult[] results;
+        try {
+            results = resolver.applyBatch(ContactsContract.AUTHORITY, batch);
+        } catch (Exception exception) {
+            throw new DataException("Groups not created.", exception);
+        }
+
+        Map<String, Group> groups = new HashMap<String, Group>();
+        for (int i = 0; i < results.length; ++i) {
+            String uid = uids.get(i);
+            long id = ContentUris.parseId(results[i].uri);
+            groups.put(uid, new Group(uid, id));
+        }
+        return groups;
+    }
+
+    /**
+     * Removes groups by single operation. Members are removed from groups,
+     * but contacts are kept.
+     * 
+     * @param groups
+     *            the groups to remove.
+     */
+    public void removeGroups(Collection<Group> groups) {
+        Log.d(TAG, format("Remove {0} groups.", groups.size()));
+
+        StringBuilder selection = new StringBuilder(Groups._ID);
+        selection.append(" in (");
+        String[] selectionArgs = new String[groups.size()];
+        int i = 0;
+        for (Group group : groups) {
+            selection.append(i > 0 ? ",?" : "?");
+            selectionArgs[i++] = Long.toString(group.getId());
+        }
+        selection.append(')');
+
+        try {
+            resolver.delete(asSyncAdapter(Groups.CONTENT_URI),
+                    selection.toString(), selectionArgs);
+        } catch (Exception exception) {
+            throw new DataException("Groups not removed.", exception);
+        }
+    }
+
     /**
      * Creates group.
      * 
@@ -89,14 +204,10 @@ public class GroupsProvider extends DataProvider {
 
         ArrayList<ContentProviderOperation> batch = new ArrayList<ContentProviderOperation>();
 
-        batch.add(ContentProviderOperation.newInsert(Groups.CONTENT_URI)
-                .withValue(Groups.SYNC1, uid).withValue(Groups.TITLE, title)
-                .withValue(Groups.ACCOUNT_NAME, account.name)
-                .withValue(Groups.ACCOUNT_TYPE, account.type)
-                .withValue(Groups.GROUP_VISIBLE, 1).build());
+        batch.add(doInsert(account, uid, title));
 
         long id = createObject(batch);
-        return new Group(uid, id);
+        return new Group(uid, id, title);
     }
 
     /**
@@ -110,12 +221,143 @@ public class GroupsProvider extends DataProvider {
     public void updateTitle(Group group, String newTitle) {
         ArrayList<ContentProviderOperation> batch = new ArrayList<ContentProviderOperation>();
 
-        Uri groupUri = ContentUris.withAppendedId(Groups.CONTENT_URI,
-                group.getId());
+        Uri groupUri = asSyncAdapter(ContentUris.withAppendedId(
+                Groups.CONTENT_URI, group.getId()));
         batch.add(ContentProviderOperation.newUpdate(groupUri)
                 .withValue(Groups.TITLE, newTitle).build());
 
         updateObject(batch);
     }
 
+    /**
+     * Finds members of groups by single query.
+     * 
+     * @param groups
+     *            the groups to search.
+     * 
+     * @return the identifiers of contacts by identifier of group. Each group
+     *         is present in result, even if it is empty.
+     */
+    public Map<Long, Set<Long>> findMembers(Collection<Group> groups) {
+        Map<Long, Set<Long>> members = new HashMap<Long, Set<Long>>();
+        if (groups.isEmpty()) {
+            return members;
+        }
+
+        StringBuilder selection = new StringBuilder(GroupMembership.MIMETYPE);
+        selection.append("=? and ").append(GroupMembership.GROUP_ROW_ID)
+                .append(" in (");
+        String[] selectionArgs = new String[groups.size() + 1];
+        selectionArgs[0] = GroupMembership.CONTENT_ITEM_TYPE;
+        int i = 1;
+        for (Group group : groups) {
+            selection.append(i > 1 ? ",?" : "?");
+            selectionArgs[i++] = Long.toString(group.getId());
+            members.put(group.getId(), new HashSet<Long>());
+        }
+        selection.append(')');
+
+        String[] projection = new String[] { GroupMembership.RAW_CONTACT_ID,
+                GroupMembership.GROUP_ROW_ID };
+        Cursor cursor = resolver.query(Data.CONTENT_URI, projection,
+                selection.toString(), selectionArgs, null);
+        if (cursor == null) {
+            throw new DataException("Members not found.");
+        }
+
+        try {
+            while (cursor.moveToNext()) {
+                long groupId = readLong(cursor, GroupMembership.GROUP_ROW_ID);
+                long id = readLong(cursor, GroupMembership.RAW_CONTACT_ID);
+                members.get(groupId).add(id);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return members;
+    }
+
+    /**
+     * Reconciles members of groups. Current members of all groups are found
+     * by single query and then missing and odd memberships are fixed in
+     * batches.
+     * 
+     * @param members
+     *            the identifiers of contacts, that should be members, by group.
+     * 
+     * @return the number of fixed memberships.
+     */
+    public int reconcileMembers(Map<Group, Set<Long>> members) {
+        Map<Long, Set<Long>> existing = findMembers(members.keySet());
+
+        ArrayList<ContentProviderOperation> batch = new ArrayList<ContentProviderOperation>();
+        int numFixed = 0;
+        for (Map.Entry<Group, Set<Long>> entry : members.entrySet()) {
+            long groupId = entry.getKey().getId();
+            Set<Long> expected = entry.getValue();
+            Set<Long> actual = existing.get(groupId);
+
+            for (Long id : expected) {
+                if (!actual.contains(id)) {
+                    batch.add(doAddMember(groupId, id));
+                }
+            }
+            for (Long id : actual) {
+                if (!expected.contains(id)) {
+                    batch.add(doRemoveMember(groupId, id));
+                }
+            }
+
+            if (batch.size() >= BATCH_SIZE) {
+                numFixed += flush(batch);
+            }
+        }
+        numFixed += flush(batch);
+
+        return numFixed;
+    }
+
+    private static ContentProviderOperation doInsert(Account account,
+            String uid, String title) {
+        return ContentProviderOperation
+                .newInsert(asSyncAdapter(Groups.CONTENT_URI))
+                .withValue(Groups.SYNC1, uid).withValue(Groups.TITLE, title)
+                .withValue(Groups.ACCOUNT_NAME, account.name)
+                .withValue(Groups.ACCOUNT_TYPE, account.type)
+                .withValue(Groups.GROUP_VISIBLE, 1).build();
+    }
+
+    private int flush(ArrayList<ContentProviderOperation> batch) {
+        int size = batch.size();
+        for (int from = 0; from < size; from += BATCH_SIZE) {
+            int to = Math.min(from + BATCH_SIZE, size);
+            Log.d(TAG, format("Fix {0} memberships.", to - from));
+            updateObject(new ArrayList<ContentProviderOperation>(batch
+                    .subList(from, to)));
+        }
+        batch.clear();
+        return size;
+    }
+
+    private static ContentProviderOperation doAddMember(long groupId, long id) {
+        return ContentProviderOperation
+                .newInsert(asSyncAdapter(Data.CONTENT_URI))
+                .withValue(Data.MIMETYPE, GroupMembership.CONTENT_ITEM_TYPE)
+                .withValue(Data.RAW_CONTACT_ID, id)
+                .withValue(GroupMembership.GROUP_ROW_ID, groupId).build();
+    }
+
+    private static ContentProviderOperation doRemoveMember(long groupId,
+            long id) {
+        String selection = Data.MIMETYPE + "=? and " + Data.RAW_CONTACT_ID
+                + "=? and " + GroupMembership.GROUP_ROW_ID + "=?";
+        String[] selectionArgs = new String[] {
+                GroupMembership.CONTENT_ITEM_TYPE, Long.toString(id),
+                Long.toString(groupId) };
+        return ContentProviderOperation
+                .newDelete(asSyncAdapter(Data.CONTENT_URI))
+                .withSelection(selection, selectionArgs).build();
+    }
+
 }
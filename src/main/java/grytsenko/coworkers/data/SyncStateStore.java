@@ -0,0 +1,538 @@
+/**
+ * Copyright (C) 2013 Anton Grytsenko (anthony.grytsenko@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grytsenko.coworkers.data;
+
+import static grytsenko.coworkers.data.DataProvider.readLong;
+import static grytsenko.coworkers.data.DataProvider.readString;
+import grytsenko.coworkers.web.Employee;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import android.accounts.Account;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+/**
+ * Stores state of sync in private database, so sync decides what to change
+ * without reading contacts provider.
+ * 
+ * <p>
+ * For each contact state contains identifier of raw contact, fingerprints of
+ * data and state of photo, that were written by sync. State is valid only if
+ * account is tracked, i.e. state was filled from contacts provider once and
+ * then it was changed together with contacts.
+ * 
+ * <p>
+ * Also store contains tombstones of contacts, which employees are missing
+ * from directory. Tombstones do not depend on state, so they are kept when
+ * state is removed.
+ */
+public class SyncStateStore {
+
+    private static final String DATABASE = "sync_state.db";
+    private static final int VERSION = 4;
+
+    private static final String CONTACTS = "contacts";
+    private static final String ACCOUNTS = "accounts";
+    private static final String TOMBSTONES = "tombstones";
+
+    /**
+     * The table of cached groups, that is no longer used.
+     */
+    private static final String GROUPS = "groups";
+
+    private static final String ACCOUNT = "account";
+    private static final String UID = "uid";
+    private static final String RAW_CONTACT_ID = "raw_contact_id";
+    private static final String FINGERPRINT = "fingerprint";
+    private static final String PHOTO_URL = "photo_url";
+    private static final String PHOTO_SYNCED = "photo_synced";
+    private static final String PHOTO_HASH = "photo_hash";
+    private static final String SYNCED_AT = "synced_at";
+    private static final String PHOTO_SYNCED_AT = "photo_synced_at";
+    private static final String TRACKED_AT = "tracked_at";
+    private static final String MISSING_SINCE = "missing_since";
+
+    private static final String BY_ACCOUNT = ACCOUNT + "=?";
+    private static final String BY_UID = ACCOUNT + "=? and " + UID + "=?";
+
+    /**
+     * Separates fingerprints of different types of data.
+     */
+    private static final String SEPARATOR = ",";
+
+    private Helper helper;
+
+    /**
+     * Creates store.
+     * 
+     * @param context
+     *            the context to use.
+     */
+    public SyncStateStore(Context context) {
+        helper = new Helper(context);
+    }
+
+    /**
+     * Checks that state of account is tracked.
+     * 
+     * @param account
+     *            the current user account.
+     * 
+     * @return <code>true</code> if state may be used instead of contacts
+     *         provider and <code>false</code> otherwise.
+     */
+    public boolean isTracked(Account account) {
+        Cursor cursor = helper.getReadableDatabase().query(ACCOUNTS,
+                new String[] { ACCOUNT }, BY_ACCOUNT,
+                new String[] { account.name }, null, null, null);
+        try {
+            return cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Marks that state of account is complete and it is tracked from now.
+     * 
+     * @param account
+     *            the current user account.
+     */
+    public void setTracked(Account account) {
+        ContentValues values = new ContentValues();
+        values.put(ACCOUNT, account.name);
+        values.put(TRACKED_AT, System.currentTimeMillis());
+        helper.getWritableDatabase().replace(ACCOUNTS, null, values);
+    }
+
+    /**
+     * Removes state of account. State is filled from contacts provider again
+     * during the next sync.
+     * 
+     * @param account
+     *            the current user account.
+     */
+    public void clear(Account account) {
+        SQLiteDatabase database = helper.getWritableDatabase();
+        String[] args = new String[] { account.name };
+        database.beginTransaction();
+        try {
+            database.delete(ACCOUNTS, BY_ACCOUNT, args);
+            database.delete(CONTACTS, BY_ACCOUNT, args);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Removes everything, that is stored for account, including tombstones.
+     * Account with the same name may be added again later, so its sync should
+     * not see state of the removed account.
+     * 
+     * @param account
+     *            the removed or added account.
+     */
+    public void removeAccount(Account account) {
+        SQLiteDatabase database = helper.getWritableDatabase();
+        String[] args = new String[] { account.name };
+        database.beginTransaction();
+        try {
+            database.delete(ACCOUNTS, BY_ACCOUNT, args);
+            database.delete(CONTACTS, BY_ACCOUNT, args);
+            database.delete(TOMBSTONES, BY_ACCOUNT, args);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Finds identifiers of raw contacts, that are recorded in state.
+     * 
+     * @param account
+     *            the current user account.
+     * 
+     * @return the found identifiers.
+     */
+    public Set<Long> findIds(Account account) {
+        Set<Long> ids = new HashSet<Long>();
+        Cursor cursor = helper.getReadableDatabase().query(CONTACTS,
+                new String[] { RAW_CONTACT_ID }, BY_ACCOUNT,
+                new String[] { account.name }, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                ids.add(readLong(cursor, RAW_CONTACT_ID));
+            }
+        } finally {
+            cursor.close();
+        }
+        return ids;
+    }
+
+    /**
+     * Finds state of all contacts of account.
+     * 
+     * @param account
+     *            the current user account.
+     * 
+     * @return the found contacts.
+     */
+    public List<Contact> findByAccount(Account account) {
+        List<Contact> contacts = new ArrayList<Contact>();
+
+        ContactIterator iterator = openByAccount(account);
+        try {
+            while (iterator.hasNext()) {
+                contacts.add(iterator.next());
+            }
+        } finally {
+            iterator.close();
+        }
+
+        return contacts;
+    }
+
+    /**
+     * Opens state of contacts of account. Contacts are read in order of their
+     * unique identifiers, see {@link Contact#UID_ORDER}.
+     * 
+     * @param account
+     *            the current user account.
+     * 
+     * @return the iterator, that should be closed after use.
+     */
+    public ContactIterator openByAccount(Account account) {
+        String[] columns = new String[] { UID, RAW_CONTACT_ID, FINGERPRINT,
+                PHOTO_URL, PHOTO_SYNCED, PHOTO_HASH };
+        Cursor cursor = helper.getReadableDatabase().query(CONTACTS, columns,
+                BY_ACCOUNT, new String[] { account.name }, null, null, UID);
+        return new StateIterator(cursor);
+    }
+
+    /**
+     * Records that contact was written by sync.
+     * 
+     * @param account
+     *            the current user account.
+     * @param contact
+     *            the contact with fingerprints of written data.
+     */
+    public void saveContact(Account account, Contact contact) {
+        ContentValues values = new ContentValues();
+        values.put(RAW_CONTACT_ID, contact.getId());
+        values.put(FINGERPRINT, joinFingerprints(contact.getFingerprints()));
+        ContactPhoto photo = contact.getPhoto();
+        if (photo != null) {
+            values.put(PHOTO_URL, photo.getUrl());
+            values.put(PHOTO_SYNCED, photo.isSynced());
+        }
+        values.put(SYNCED_AT, System.currentTimeMillis());
+
+        save(account, contact.getUid(), values);
+    }
+
+    /**
+     * Records that photo of contact was synced.
+     * 
+     * @param account
+     *            the current user account.
+     * @param uid
+     *            the unique identifier of employee.
+     * @param photo
+     *            the synced photo.
+     */
+    public void savePhoto(Account account, String uid, ContactPhoto photo) {
+        ContentValues values = new ContentValues();
+        values.put(PHOTO_URL, photo.getUrl());
+        values.put(PHOTO_SYNCED, photo.isSynced());
+        values.put(PHOTO_HASH, photo.getHash());
+        values.put(PHOTO_SYNCED_AT, System.currentTimeMillis());
+
+        helper.getWritableDatabase().update(CONTACTS, values, BY_UID,
+                new String[] { account.name, uid });
+    }
+
+    /**
+     * Records that contact was removed.
+     * 
+     * @param account
+     *            the current user account.
+     * @param uid
+     *            the unique identifier of employee.
+     */
+    public void removeContact(Account account, String uid) {
+        SQLiteDatabase database = helper.getWritableDatabase();
+        String[] args = new String[] { account.name, uid };
+        database.delete(CONTACTS, BY_UID, args);
+        database.delete(TOMBSTONES, BY_UID, args);
+    }
+
+    /**
+     * Records that contacts were removed.
+     * 
+     * @param account
+     *            the current user account.
+     * @param contacts
+     *            the removed contacts.
+     */
+    public void removeContacts(Account account, List<Contact> contacts) {
+        SQLiteDatabase database = helper.getWritableDatabase();
+        database.beginTransaction();
+        try {
+            for (Contact contact : contacts) {
+                String[] args = new String[] { account.name, contact.getUid() };
+                database.delete(CONTACTS, BY_UID, args);
+                database.delete(TOMBSTONES, BY_UID, args);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Records contacts, which employees are missing from directory, and
+     * forgets contacts, which employees returned into directory.
+     * 
+     * @param account
+     *            the current user account.
+     * @param contacts
+     *            the contacts, which employees are missing now.
+     * @param now
+     *            the current time in milliseconds.
+     * 
+     * @return the time in milliseconds since which employee is missing, by
+     *         unique identifier of employee.
+     */
+    public Map<String, Long> updateTombstones(Account account,
+            List<Contact> contacts, long now) {
+        Map<String, Long> previous = new HashMap<String, Long>();
+
+        SQLiteDatabase database = helper.getWritableDatabase();
+        String[] args = new String[] { account.name };
+        Cursor cursor = database.query(TOMBSTONES, new String[] { UID,
+                MISSING_SINCE }, BY_ACCOUNT, args, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                previous.put(readString(cursor, UID),
+                        readLong(cursor, MISSING_SINCE));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        Map<String, Long> tombstones = new HashMap<String, Long>();
+        database.beginTransaction();
+        try {
+            database.delete(TOMBSTONES, BY_ACCOUNT, args);
+
+            ContentValues values = new ContentValues();
+            for (Contact contact : contacts) {
+                String uid = contact.getUid();
+                Long since = previous.get(uid);
+                if (since == null) {
+                    since = now;
+                }
+                tombstones.put(uid, since);
+
+                values.put(ACCOUNT, account.name);
+                values.put(UID, uid);
+                values.put(MISSING_SINCE, since);
+                database.insert(TOMBSTONES, null, values);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        return tombstones;
+    }
+
+    /**
+     * Starts transaction, so many changes are stored at once.
+     */
+    public void beginTransaction() {
+        helper.getWritableDatabase().beginTransaction();
+    }
+
+    /**
+     * Marks that changes made in transaction should be stored.
+     */
+    public void setTransactionSuccessful() {
+        helper.getWritableDatabase().setTransactionSuccessful();
+    }
+
+    /**
+     * Ends transaction.
+     */
+    public void endTransaction() {
+        helper.getWritableDatabase().endTransaction();
+    }
+
+    private void save(Account account, String uid, ContentValues values) {
+        SQLiteDatabase database = helper.getWritableDatabase();
+        String[] args = new String[] { account.name, uid };
+        if (database.update(CONTACTS, values, BY_UID, args) > 0) {
+            return;
+        }
+
+        values.put(ACCOUNT, account.name);
+        values.put(UID, uid);
+        database.insert(CONTACTS, null, values);
+    }
+
+    private static String joinFingerprints(Map<String, String> fingerprints) {
+        StringBuilder joined = new StringBuilder();
+        for (int i = 0; i < Employee.DATA_KINDS.length; ++i) {
+            if (i > 0) {
+                joined.append(SEPARATOR);
+            }
+            String fingerprint = fingerprints.get(Employee.DATA_KINDS[i]);
+            if (fingerprint != null) {
+                joined.append(fingerprint);
+            }
+        }
+        return joined.toString();
+    }
+
+    private static Map<String, String> splitFingerprints(String joined) {
+        Map<String, String> fingerprints = new HashMap<String, String>();
+        if (joined == null) {
+            return fingerprints;
+        }
+
+        String[] values = joined.split(SEPARATOR, -1);
+        int length = Math.min(values.length, Employee.DATA_KINDS.length);
+        for (int i = 0; i < length; ++i) {
+            if (values[i].length() > 0) {
+                fingerprints.put(Employee.DATA_KINDS[i], values[i]);
+            }
+        }
+        return fingerprints;
+    }
+
+    /**
+     * Reads contacts from state.
+     */
+    private static class StateIterator implements ContactIterator {
+
+        private final Cursor cursor;
+        private boolean hasRow;
+
+        public StateIterator(Cursor cursor) {
+            this.cursor = cursor;
+            this.hasRow = cursor.moveToFirst();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return hasRow;
+        }
+
+        @Override
+        public Contact next() {
+            if (!hasRow) {
+                throw new NoSuchElementException();
+            }
+
+            String uid = readString(cursor, UID);
+            long id = readLong(cursor, RAW_CONTACT_ID);
+            Map<String, String> fingerprints = splitFingerprints(readString(
+                    cursor, FINGERPRINT));
+            ContactPhoto photo = new ContactPhoto(readString(cursor,
+                    PHOTO_URL), readSynced(cursor), readString(cursor,
+                    PHOTO_HASH));
+
+            hasRow = cursor.moveToNext();
+
+            return new Contact(uid, id,
+                    new HashMap<String, ContentValues>(), fingerprints, photo);
+        }
+
+        private static boolean readSynced(Cursor cursor) {
+            int column = cursor.getColumnIndexOrThrow(PHOTO_SYNCED);
+            return cursor.getInt(column) != 0;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+            cursor.close();
+        }
+
+    }
+
+    /**
+     * Creates and upgrades database.
+     */
+    private static class Helper extends SQLiteOpenHelper {
+
+        public Helper(Context context) {
+            super(context, DATABASE, null, VERSION);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase database) {
+            database.execSQL("create table " + CONTACTS + " (" + ACCOUNT
+                    + " text not null, " + UID + " text not null, "
+                    + RAW_CONTACT_ID + " integer not null, " + FINGERPRINT
+                    + " text, " + PHOTO_URL + " text, " + PHOTO_SYNCED
+                    + " integer not null default 0, " + PHOTO_HASH + " text, "
+                    + SYNCED_AT + " integer, " + PHOTO_SYNCED_AT
+                    + " integer, primary key (" + ACCOUNT + ", " + UID + "))");
+            database.execSQL("create table " + ACCOUNTS + " (" + ACCOUNT
+                    + " text primary key, " + TRACKED_AT + " integer)");
+            database.execSQL("create table " + TOMBSTONES + " (" + ACCOUNT
+                    + " text not null, " + UID + " text not null, "
+                    + MISSING_SINCE + " integer not null, primary key ("
+                    + ACCOUNT + ", " + UID + "))");
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase database, int oldVersion,
+                int newVersion) {
+            if (oldVersion == 3) {
+                // Groups are not cached anymore, the rest of state is kept.
+                database.execSQL("drop table if exists " + GROUPS);
+                return;
+            }
+
+            // State is filled from contacts provider again.
+            database.execSQL("drop table if exists " + CONTACTS);
+            database.execSQL("drop table if exists " + ACCOUNTS);
+            database.execSQL("drop table if exists " + TOMBSTONES);
+            database.execSQL("drop table if exists " + GROUPS);
+            onCreate(database);
+        }
+
+    }
+
+}
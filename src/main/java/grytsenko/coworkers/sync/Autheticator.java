@@ -17,7 +17,12 @@ package grytsenko.coworkers.sync;
 
 import static android.accounts.AccountManager.KEY_ACCOUNT_AUTHENTICATOR_RESPONSE;
 import grytsenko.coworkers.R;
+import grytsenko.coworkers.data.SyncStateStore;
 import grytsenko.coworkers.ui.SignInActivity;
+import grytsenko.coworkers.web.DirectoryCache;
+import grytsenko.coworkers.web.UnauthorizedException;
+import grytsenko.coworkers.web.WebClient;
+import grytsenko.coworkers.web.WebException;
 import android.accounts.AbstractAccountAuthenticator;
 import android.accounts.Account;
 import android.accounts.AccountAuthenticatorResponse;
@@ -29,12 +34,19 @@ import android.os.Bundle;
 import android.util.Log;
 
 /**
- * Allows to create the single account using {@link SignInActivity}.
+ * Allows to create the single account using {@link SignInActivity}. Issues
+ * session tokens, so password is sent to REST service only when token is
+ * obtained.
  */
 public class Autheticator extends AbstractAccountAuthenticator {
 
     private static final String TAG = Autheticator.class.getName();
 
+    /**
+     * The type of session tokens, that are issued by REST service.
+     */
+    public static final String AUTH_TOKEN_TYPE = "grytsenko.coworkers.session";
+
     private Context context;
 
     public Autheticator(Context context) {
@@ -84,7 +96,34 @@ public class Autheticator extends AbstractAccountAuthenticator {
     public Bundle getAuthToken(AccountAuthenticatorResponse response,
             Account account, String authTokenType, Bundle options)
             throws NetworkErrorException {
-        return null;
+        Bundle bundle = new Bundle();
+        if (!AUTH_TOKEN_TYPE.equals(authTokenType)) {
+            Log.d(TAG, "Invalid type of token.");
+            bundle.putString(AccountManager.KEY_ERROR_MESSAGE,
+                    "Invalid type of token.");
+            return bundle;
+        }
+
+        // Token is cached by AccountManager, so it is obtained only if it was
+        // not issued yet or it was invalidated.
+        AccountManager manager = AccountManager.get(context);
+        String password = manager.getPassword(account);
+        String url = context.getString(R.string.rest_session);
+        try {
+            String token = new WebClient().getSessionToken(url, account.name,
+                    password);
+            Log.d(TAG, "Token obtained.");
+            bundle.putString(AccountManager.KEY_ACCOUNT_NAME, account.name);
+            bundle.putString(AccountManager.KEY_ACCOUNT_TYPE, account.type);
+            bundle.putString(AccountManager.KEY_AUTHTOKEN, token);
+        } catch (UnauthorizedException exception) {
+            Log.d(TAG, "Credentials not valid.", exception);
+            bundle.putString(AccountManager.KEY_ERROR_MESSAGE,
+                    context.getString(R.string.sign_in_failed));
+        } catch (WebException exception) {
+            throw new NetworkErrorException("Token not obtained.", exception);
+        }
+        return bundle;
     }
 
     @Override
@@ -92,6 +131,18 @@ public class Autheticator extends AbstractAccountAuthenticator {
         return null;
     }
 
+    @Override
+    public Bundle getAccountRemovalAllowed(
+            AccountAuthenticatorResponse response, Account account)
+            throws NetworkErrorException {
+        // Contacts are removed together with account, so state is removed too.
+        Log.d(TAG, "Remove state of account.");
+        new SyncStateStore(context).removeAccount(account);
+        new DirectoryCache(context).remove(account);
+
+        return super.getAccountRemovalAllowed(response, account);
+    }
+
     @Override
     public Bundle hasFeatures(AccountAuthenticatorResponse response,
             Account account, String[] features) throws NetworkErrorException {
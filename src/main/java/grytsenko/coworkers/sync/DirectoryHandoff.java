@@ -0,0 +1,89 @@
+/**
+ * Copyright (C) 2013 Anton Grytsenko (anthony.grytsenko@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grytsenko.coworkers.sync;
+
+import grytsenko.coworkers.web.Directory;
+import android.accounts.Account;
+import android.os.SystemClock;
+import android.text.TextUtils;
+
+/**
+ * Passes directory, that was downloaded during sign in, to the first sync,
+ * so it is not downloaded again.
+ * 
+ * <p>
+ * Directory is kept in memory only for a short time and it is taken only
+ * once. If process was restarted meanwhile, then sync downloads directory.
+ */
+public final class DirectoryHandoff {
+
+    /**
+     * The number of milliseconds during which directory may be taken.
+     */
+    private static final long LIFETIME = 5 * 60 * 1000;
+
+    private static Account account;
+    private static String fields;
+    private static Directory directory;
+    private static long offeredAt;
+
+    /**
+     * Offers directory to the next sync of account.
+     * 
+     * @param account
+     *            the account, that was used to download directory.
+     * @param fields
+     *            the projection, that was used to download directory.
+     * @param directory
+     *            the downloaded directory.
+     */
+    public static synchronized void offer(Account account, String fields,
+            Directory directory) {
+        DirectoryHandoff.account = account;
+        DirectoryHandoff.fields = fields;
+        DirectoryHandoff.directory = directory;
+        offeredAt = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Takes directory, that was offered for account.
+     * 
+     * @param account
+     *            the account to sync.
+     * @param fields
+     *            the projection, that would be used to download directory.
+     * 
+     * @return the directory or <code>null</code> if directory was not offered,
+     *         it is outdated or it was downloaded with another projection.
+     */
+    static synchronized Directory take(Account account, String fields) {
+        Directory offered = directory;
+        boolean matches = offered != null
+                && account.equals(DirectoryHandoff.account)
+                && TextUtils.equals(fields, DirectoryHandoff.fields)
+                && SystemClock.elapsedRealtime() - offeredAt < LIFETIME;
+
+        DirectoryHandoff.account = null;
+        DirectoryHandoff.fields = null;
+        directory = null;
+
+        return matches ? offered : null;
+    }
+
+    private DirectoryHandoff() {
+    }
+
+}
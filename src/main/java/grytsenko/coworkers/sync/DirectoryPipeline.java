@@ -0,0 +1,212 @@
+/**
+ * Copyright (C) 2013 Anton Grytsenko (anthony.grytsenko@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grytsenko.coworkers.sync;
+
+import static java.lang.String.format;
+import grytsenko.coworkers.web.Directory;
+import grytsenko.coworkers.web.Employee;
+import grytsenko.coworkers.web.Mirrors;
+import grytsenko.coworkers.web.WebClient;
+import grytsenko.coworkers.web.WebClient.EmployeeHandler;
+import grytsenko.coworkers.web.WebException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import android.os.Build;
+import android.util.Log;
+
+/**
+ * Downloads directory in background thread and passes employees to sync
+ * thread through bounded queue, so contacts are written while the rest of
+ * directory is downloaded.
+ * 
+ * <p>
+ * Employees are passed in batches to reduce overhead of queue.
+ */
+class DirectoryPipeline {
+
+    private static final String TAG = DirectoryPipeline.class.getName();
+
+    private static final int BATCH_SIZE = 50;
+    private static final int QUEUE_CAPACITY = 8;
+
+    /**
+     * Marks the end of directory.
+     */
+    private static final List<Employee> END = new ArrayList<Employee>();
+
+    /**
+     * Checks that pipeline is supported by platform.
+     * 
+     * @return <code>true</code> if pipeline can be used and
+     *         <code>false</code> otherwise.
+     */
+    public static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
+    }
+
+    private BlockingQueue<List<Employee>> queue = new ArrayBlockingQueue<List<Employee>>(
+            QUEUE_CAPACITY);
+
+    private Thread producer;
+
+    private volatile boolean cancelled;
+    private volatile Directory directory;
+    private volatile WebException error;
+
+    /**
+     * Starts download of directory.
+     * 
+     * @param webClient
+     *            the client to use.
+     * @param mirrors
+     *            the mirrors of REST service.
+     * @param fields
+     *            the projection of directory.
+     * @param token
+     *            the session token.
+     */
+    public void start(final WebClient webClient, final Mirrors mirrors,
+            final String fields, final String token) {
+        producer = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                produce(webClient, mirrors, fields, token);
+            }
+
+        }, TAG);
+        // Abandoned download should not keep process alive.
+        producer.setDaemon(true);
+        producer.start();
+    }
+
+    private void produce(WebClient webClient, Mirrors mirrors, String fields,
+            String token) {
+        BatchingHandler handler = new BatchingHandler();
+        try {
+            directory = webClient.streamDirectory(mirrors, fields, token,
+                    handler);
+            handler.flush();
+        } catch (WebException exception) {
+            error = exception;
+        } catch (RuntimeException exception) {
+            error = new WebException("Invalid data.", exception);
+        } catch (InterruptedException exception) {
+            Log.d(TAG, "Pipeline interrupted.");
+        } finally {
+            // Sync thread waits for the end, whatever happened, unless it
+            // stopped waiting already.
+            try {
+                if (!cancelled) {
+                    queue.put(END);
+                }
+            } catch (InterruptedException exception) {
+                Log.d(TAG, "Pipeline interrupted.");
+            }
+        }
+    }
+
+    /**
+     * Waits for the next batch of employees.
+     * 
+     * @return the batch of employees or <code>null</code> if directory was
+     *         downloaded completely.
+     * 
+     * @throws WebException
+     *             if directory could not be downloaded.
+     * @throws SyncException
+     *             if sync was cancelled.
+     */
+    public List<Employee> take() {
+        List<Employee> employees;
+        try {
+            employees = queue.take();
+        } catch (InterruptedException exception) {
+            cancel();
+            Thread.currentThread().interrupt();
+            throw new SyncException("Sync was cancelled.");
+        }
+
+        if (employees != END) {
+            return employees;
+        }
+
+        if (error != null) {
+            throw error;
+        }
+        Log.d(TAG, format("Pipeline completed, %d employees.",
+                directory.getSize()));
+        return null;
+    }
+
+    /**
+     * Returns the downloaded directory.
+     * 
+     * @return the directory without list of employees.
+     */
+    public Directory getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Stops download of directory. Queue is emptied, so producer is not
+     * blocked by batches, that will never be taken.
+     */
+    public void cancel() {
+        cancelled = true;
+        queue.clear();
+        if (producer != null) {
+            producer.interrupt();
+        }
+    }
+
+    /**
+     * Puts employees into queue in batches.
+     */
+    private class BatchingHandler implements EmployeeHandler {
+
+        private List<Employee> batch = new ArrayList<Employee>(BATCH_SIZE);
+
+        @Override
+        public void handle(Employee employee) throws InterruptedException {
+            // Reading of socket ignores interrupts, so cancellation is checked
+            // for each employee.
+            if (cancelled) {
+                throw new InterruptedException("Pipeline cancelled.");
+            }
+
+            batch.add(employee);
+            if (batch.size() >= BATCH_SIZE) {
+                flush();
+            }
+        }
+
+        public void flush() throws InterruptedException {
+            if (batch.isEmpty()) {
+                return;
+            }
+
+            queue.put(batch);
+            batch = new ArrayList<Employee>(BATCH_SIZE);
+        }
+
+    }
+
+}
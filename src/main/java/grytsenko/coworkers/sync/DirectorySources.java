@@ -0,0 +1,239 @@
+/**
+ * Copyright (C) 2013 Anton Grytsenko (anthony.grytsenko@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grytsenko.coworkers.sync;
+
+import static java.lang.String.format;
+import grytsenko.coworkers.web.Directory;
+import grytsenko.coworkers.web.Employee;
+import grytsenko.coworkers.web.Mirrors;
+import grytsenko.coworkers.web.UnauthorizedException;
+import grytsenko.coworkers.web.WebClient;
+import grytsenko.coworkers.web.WebException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Downloads directories of several sources in parallel and merges them by
+ * unique identifiers of employees. If employee is listed by several sources,
+ * then the source, that is listed first, takes precedence.
+ * 
+ * <p>
+ * Sources, that failed or were not received in time, are skipped, so they do
+ * not block the others. Such directory is partial. Once some source was
+ * received, the others get only short time to catch up, so single slow
+ * source does not delay sync for long.
+ */
+class DirectorySources {
+
+    private static final String TAG = DirectorySources.class.getName();
+
+    /**
+     * The number of milliseconds during which sources are awaited.
+     */
+    private static final long TIMEOUT = 3 * 60 * 1000;
+
+    /**
+     * The number of milliseconds during which the rest of sources are awaited
+     * after some source was received.
+     */
+    private static final long CATCH_UP_TIMEOUT = 30 * 1000;
+
+    private final WebClient webClient;
+    private final List<Mirrors> sources;
+
+    /**
+     * Creates sources.
+     * 
+     * @param webClient
+     *            the client to use.
+     * @param sources
+     *            the mirrors of each source in order of precedence.
+     */
+    public DirectorySources(WebClient webClient, List<Mirrors> sources) {
+        this.webClient = webClient;
+        this.sources = sources;
+    }
+
+    /**
+     * Downloads and merges directories of all sources.
+     * 
+     * @param fields
+     *            the projection of directory.
+     * @param token
+     *            the session token.
+     * 
+     * @return the merged directory.
+     * 
+     * @throws UnauthorizedException
+     *             if token was not accepted by some source.
+     * @throws WebException
+     *             if no source is available.
+     * @throws SyncException
+     *             if sync was cancelled.
+     */
+    public Directory fetch(final String fields, final String token) {
+        if (sources.size() == 1) {
+            return webClient.getDirectory(sources.get(0), fields, token);
+        }
+
+        int numSources = sources.size();
+        ExecutorService executor = Executors.newFixedThreadPool(numSources);
+        try {
+            CompletionService<Directory> completion = new ExecutorCompletionService<Directory>(
+                    executor);
+            Map<Future<Directory>, Integer> indexes = new HashMap<Future<Directory>, Integer>();
+            for (final Mirrors mirrors : sources) {
+                Future<Directory> future = completion
+                        .submit(new Callable<Directory>() {
+
+                            @Override
+                            public Directory call() {
+                                return webClient.getDirectory(mirrors, fields,
+                                        token);
+                            }
+
+                        });
+                indexes.put(future, indexes.size());
+            }
+
+            // Sources are received in order of completion.
+            long deadline = SystemClock.elapsedRealtime() + TIMEOUT;
+            Directory[] directories = new Directory[numSources];
+            for (int i = 0; i < numSources; ++i) {
+                Future<Directory> future = poll(completion, deadline);
+                if (future == null) {
+                    Log.w(TAG, format("%d sources too slow.", numSources - i));
+                    break;
+                }
+
+                Directory directory = await(future);
+                directories[indexes.get(future)] = directory;
+                if (directory != null) {
+                    deadline = Math.min(deadline,
+                            SystemClock.elapsedRealtime() + CATCH_UP_TIMEOUT);
+                }
+            }
+            return merge(Arrays.asList(directories));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Waits until some source is completed.
+     * 
+     * @return the completed source or <code>null</code> if deadline passed.
+     */
+    private static Future<Directory> poll(
+            CompletionService<Directory> completion, long deadline) {
+        long timeout = deadline - SystemClock.elapsedRealtime();
+        try {
+            return completion.poll(Math.max(timeout, 0),
+                    TimeUnit.MILLISECONDS);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new SyncException("Sync was cancelled.");
+        }
+    }
+
+    /**
+     * Takes directory of completed source.
+     * 
+     * @return the directory or <code>null</code> if source failed.
+     */
+    private static Directory await(Future<Directory> future) {
+        try {
+            return future.get();
+        } catch (ExecutionException exception) {
+            Throwable cause = exception.getCause();
+            if (cause instanceof UnauthorizedException) {
+                throw (UnauthorizedException) cause;
+            }
+            Log.w(TAG, "Source not available.", cause);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new SyncException("Sync was cancelled.");
+        }
+        return null;
+    }
+
+    /**
+     * Merges directories in order of precedence.
+     * 
+     * @param directories
+     *            the directories of sources, where <code>null</code> marks
+     *            source, that was not received.
+     */
+    private static Directory merge(List<Directory> directories) {
+        List<Employee> employees = new ArrayList<Employee>();
+        Set<String> uids = new HashSet<String>();
+        StringBuilder version = new StringBuilder();
+        long maxAge = Long.MAX_VALUE;
+        boolean complete = true;
+        int numReceived = 0;
+
+        for (Directory directory : directories) {
+            if (version.length() > 0) {
+                version.append(',');
+            }
+            if (directory == null) {
+                version.append('-');
+                continue;
+            }
+
+            ++numReceived;
+            for (Employee employee : directory.getEmployees()) {
+                if (uids.add(employee.getUid())) {
+                    employees.add(employee);
+                }
+            }
+            version.append(directory.getVersion());
+            maxAge = Math.min(maxAge, directory.getMaxAge());
+            complete &= directory.isComplete();
+        }
+
+        if (numReceived == 0) {
+            throw new WebException("No source available.");
+        }
+
+        boolean partial = numReceived < directories.size();
+        Log.d(TAG, format("Merged %d employees from %d of %d sources.",
+                employees.size(), numReceived, directories.size()));
+
+        // Sources were confirmed separately, so the merged size is declared.
+        int totalCount = complete && !partial ? employees.size() : -1;
+        return new Directory(employees, version.toString(), maxAge,
+                totalCount, partial);
+    }
+
+}
@@ -0,0 +1,149 @@
+/**
+ * Copyright (C) 2013 Anton Grytsenko (anthony.grytsenko@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grytsenko.coworkers.sync;
+
+import static java.lang.String.format;
+import grytsenko.coworkers.data.Contact;
+import grytsenko.coworkers.data.SyncStateStore;
+import grytsenko.coworkers.web.Directory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import android.accounts.Account;
+import android.content.SyncResult;
+import android.util.Log;
+
+/**
+ * Protects contacts against glitches of directory.
+ * 
+ * <p>
+ * Contact, which employee is missing from directory, gets tombstone and it is
+ * removed only after grace period, so contact survives if employee returns
+ * into directory. Sync refuses to remove many contacts at once, unless server
+ * confirmed that directory is complete or user allowed it.
+ */
+final class RemovalGuard {
+
+    private static final String TAG = RemovalGuard.class.getName();
+
+    /**
+     * The share of contacts, that may be removed by single sync.
+     */
+    public static final double MAX_REMOVE_RATIO = 0.1;
+
+    /**
+     * The number of contacts, that may be removed by single sync regardless
+     * of the number of contacts.
+     */
+    public static final int MIN_REMOVE_LIMIT = 10;
+
+    private final SyncStateStore stateStore;
+    private final Account account;
+    private final long gracePeriod;
+    private final boolean allowed;
+
+    private int numRefused;
+
+    /**
+     * Creates guard.
+     * 
+     * @param stateStore
+     *            the store for tombstones.
+     * @param account
+     *            the current user account.
+     * @param gracePeriod
+     *            the number of seconds during which missing employee may
+     *            return into directory.
+     * @param allowed
+     *            indicates that user allowed to remove many contacts.
+     */
+    public RemovalGuard(SyncStateStore stateStore, Account account,
+            long gracePeriod, boolean allowed) {
+        this.stateStore = stateStore;
+        this.account = account;
+        this.gracePeriod = gracePeriod;
+        this.allowed = allowed;
+    }
+
+    /**
+     * Selects contacts, that may be removed now. Tombstones are updated, so
+     * contacts of returned employees are forgotten.
+     * 
+     * <p>
+     * If too many contacts should be removed, then nothing is removed and
+     * {@link SyncResult#tooManyDeletions} is set, so system asks user to
+     * confirm removal.
+     * 
+     * @param missing
+     *            the contacts, which employees are missing from directory.
+     * @param numContacts
+     *            the number of existing contacts.
+     * @param directory
+     *            the directory, that was synced.
+     * @param results
+     *            the results of sync.
+     * 
+     * @return the contacts to remove.
+     */
+    public List<Contact> filter(List<Contact> missing, int numContacts,
+            Directory directory, SyncResult results) {
+        long now = System.currentTimeMillis();
+        Map<String, Long> tombstones = stateStore.updateTombstones(account,
+                missing, now);
+        if (missing.isEmpty()) {
+            return missing;
+        }
+
+        int limit = Math.max(MIN_REMOVE_LIMIT,
+                (int) (numContacts * MAX_REMOVE_RATIO));
+        if (missing.size() > limit && !allowed && !directory.isComplete()) {
+            Log.w(TAG, format("Refused to remove %d of %d contacts.",
+                    missing.size(), numContacts));
+            results.tooManyDeletions = true;
+            results.stats.numDeletes = missing.size();
+            numRefused = missing.size();
+            return Collections.emptyList();
+        }
+
+        long deadline = now - gracePeriod * 1000;
+        List<Contact> removes = new ArrayList<Contact>();
+        for (Contact contact : missing) {
+            Long since = tombstones.get(contact.getUid());
+            if (since != null && since <= deadline) {
+                removes.add(contact);
+            }
+        }
+
+        int numDeferred = missing.size() - removes.size();
+        if (numDeferred > 0) {
+            Log.d(TAG, format("Removal of %d contacts deferred.", numDeferred));
+        }
+        return removes;
+    }
+
+    /**
+     * Returns the number of contacts, that guard refused to remove. These
+     * contacts are reported as deletions to system, so it can ask user, but
+     * they were not removed.
+     */
+    public int getNumRefused() {
+        return numRefused;
+    }
+
+}
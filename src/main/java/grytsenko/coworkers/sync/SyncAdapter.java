@@ -19,30 +19,64 @@ import static java.lang.String.format;
 import static java.lang.Thread.currentThread;
 import grytsenko.coworkers.R;
 import grytsenko.coworkers.data.Contact;
+import grytsenko.coworkers.data.ContactIterator;
 import grytsenko.coworkers.data.ContactPhoto;
 import grytsenko.coworkers.data.ContactsProvider;
 import grytsenko.coworkers.data.DataException;
+import grytsenko.coworkers.data.DirtyContact;
+import grytsenko.coworkers.data.Fingerprint;
 import grytsenko.coworkers.data.Group;
 import grytsenko.coworkers.data.GroupsProvider;
+import grytsenko.coworkers.data.SyncStateStore;
+import grytsenko.coworkers.sync.SyncCheckpoint.Step;
+import grytsenko.coworkers.sync.SyncPlan.Update;
+import grytsenko.coworkers.sync.SyncPlanner.UnchangedHandler;
+import grytsenko.coworkers.util.AdaptiveFrequency;
+import grytsenko.coworkers.util.ConnectivityMonitor;
+import grytsenko.coworkers.util.ConnectivityMonitor.Listener;
+import grytsenko.coworkers.util.DataUsage;
 import grytsenko.coworkers.util.GeneralSettings;
-import grytsenko.coworkers.util.NetworkConnectivity;
+import grytsenko.coworkers.util.SubGroups;
+import grytsenko.coworkers.util.SyncConstraints;
+import grytsenko.coworkers.util.SyncFrequency;
+import grytsenko.coworkers.util.SyncPhase;
 import grytsenko.coworkers.util.SyncScheduler;
+import grytsenko.coworkers.web.Directory;
+import grytsenko.coworkers.web.DirectoryCache;
+import grytsenko.coworkers.web.DirectoryCache.CacheWriter;
 import grytsenko.coworkers.web.Employee;
+import grytsenko.coworkers.web.Mirrors;
+import grytsenko.coworkers.web.TrafficMeter;
+import grytsenko.coworkers.web.UnauthorizedException;
 import grytsenko.coworkers.web.WebClient;
 import grytsenko.coworkers.web.WebException;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 
 import android.accounts.Account;
 import android.accounts.AccountManager;
+import android.accounts.AuthenticatorException;
+import android.accounts.OperationCanceledException;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
+import android.content.ContentResolver;
 import android.content.Context;
 import android.content.SyncResult;
 import android.content.SyncStats;
+import android.content.res.Resources;
+import android.content.res.TypedArray;
 import android.os.Bundle;
+import android.provider.ContactsContract.CommonDataKinds.Organization;
+import android.provider.ContactsContract.CommonDataKinds.StructuredName;
 import android.text.TextUtils;
 import android.util.Log;
 
@@ -53,71 +87,226 @@ public class SyncAdapter extends AbstractThreadedSyncAdapter {
 
     private static final String TAG = SyncAdapter.class.getName();
 
+    /**
+     * The number of changed contacts, that are repaired one by one. If more
+     * contacts were changed, then all contacts are compared with directory.
+     */
+    private static final int MAX_REPAIRS = 100;
+
+    /**
+     * The number of created contacts, for which aggregation is suspended
+     * until all of them are created.
+     */
+    private static final int BULK_IMPORT = 50;
+
     private WebClient webClient;
+    private List<Mirrors> sources;
 
     private GroupsProvider groupsProvider;
     private ContactsProvider contactsProvider;
+    private SyncStateStore stateStore;
+    private DirectoryCache directoryCache;
 
     private GeneralSettings settings;
-    private NetworkConnectivity connectivity;
+    private SyncConfig config;
+    private ConnectivityMonitor monitor;
+    private SyncConstraints constraints;
+    private DataUsage dataUsage;
+    private AdaptiveFrequency adaptiveFrequency;
+    private SyncGuard guard;
+
+    private String authToken;
+
+    /**
+     * Loads sources of directory in order of precedence. Each source is
+     * described by array of its mirrors.
+     */
+    private static List<Mirrors> loadSources(Context context) {
+        Resources resources = context.getResources();
+        TypedArray array = resources.obtainTypedArray(R.array.rest_sources);
+        try {
+            List<Mirrors> sources = new ArrayList<Mirrors>();
+            for (int i = 0; i < array.length(); ++i) {
+                String[] urls = resources.getStringArray(array.getResourceId(
+                        i, 0));
+                sources.add(new Mirrors(context, urls));
+            }
+            return sources;
+        } finally {
+            array.recycle();
+        }
+    }
 
     public SyncAdapter(Context context, boolean autoInitialize) {
         super(context, autoInitialize);
 
         webClient = new WebClient();
+        sources = loadSources(context);
 
         groupsProvider = new GroupsProvider(context);
         contactsProvider = new ContactsProvider(context);
+        stateStore = new SyncStateStore(context);
+        directoryCache = new DirectoryCache(context);
 
         settings = new GeneralSettings(context);
-        connectivity = new NetworkConnectivity(context);
+        monitor = new ConnectivityMonitor(context, new Listener() {
+
+            @Override
+            public void onNetworkChanged(String networkType, boolean limited) {
+                webClient.getTrafficMeter().setNetwork(networkType, limited);
+            }
+
+        });
+        constraints = new SyncConstraints(context);
+        dataUsage = new DataUsage(context);
+        adaptiveFrequency = new AdaptiveFrequency(context);
+        guard = new SyncGuard(context);
     }
 
     @Override
     public void onPerformSync(Account account, Bundle extras, String authority,
             ContentProviderClient provider, SyncResult syncResult) {
+        // Confirmed removal is never coalesced, because it was asked by user.
+        boolean regular = SyncScheduler.isRegular(extras)
+                && !extras.getBoolean(
+                        ContentResolver.SYNC_EXTRAS_OVERRIDE_TOO_MANY_DELETIONS,
+                        false);
+        if (guard.tryStart(account, regular) != null) {
+            return;
+        }
+
+        // Account is marked as running, so everything after this point should
+        // be undone by finally block.
+        SyncCheckpoint checkpoint = null;
+        boolean metering = false;
+        boolean synced = false;
         try {
+            checkpoint = new SyncCheckpoint(getContext(), account);
+            config = new SyncConfig(settings);
+            authToken = null;
+            monitor.start();
+            startMetering();
+            metering = true;
+
+            if (SyncScheduler.isDryRun(extras)) {
+                planDryRun(account, syncResult);
+                return;
+            }
+
             Group group = syncGroup(account, syncResult);
             Log.d(TAG, "Group synced.");
 
-            checkCancelled();
-
-            Map<String, Employee> employees = getCoworkers(account, syncResult);
-            Log.d(TAG, format("Found %d employees.", employees.size()));
+            if (SyncScheduler.isGroupOnly(extras)) {
+                return;
+            }
 
             checkCancelled();
 
-            Map<String, Contact> contacts = syncContacts(account, group,
-                    employees, syncResult);
+            SyncPhase phase = SyncScheduler.getPhase(extras);
+            Log.d(TAG, format("Sync phase %s.", phase));
 
-            syncPhotos(contacts);
-
-            SyncScheduler.scheduleNext(account, settings.syncFrequency());
+            if (phase == SyncPhase.NAMES) {
+                syncNames(account, group, syncResult);
+                return;
+            }
 
-            if (settings.notificationsEnabled()) {
-                StatusService.notify(getContext(), R.string.sync_completed);
+            if (phase == SyncPhase.DIRECTORY) {
+                for (Mirrors mirrors : sources) {
+                    webClient.probe(mirrors);
+                }
+
+                try {
+                    syncDirectory(account, group, extras, checkpoint,
+                            syncResult);
+                } catch (UnauthorizedException exception) {
+                    // Token expired before directory was received, so sync
+                    // is repeated with new token.
+                    Log.d(TAG, "Token not accepted.");
+                    invalidateAuthToken(account);
+                    syncDirectory(account, group, extras, checkpoint,
+                            syncResult);
+                }
+                synced = true;
+
+                checkCancelled();
+
+                syncMembers(account, group);
+                Log.d(TAG, "Members synced.");
+
+                checkCancelled();
             }
 
+            syncPhotos(account, checkpoint, syncResult.stats);
+
             Log.d(TAG, "Sync completed.");
         } catch (SyncException exception) {
             Log.d(TAG, "Sync interrupted.", exception);
+        } catch (UnauthorizedException exception) {
+            Log.d(TAG, "Sync not authorized.", exception);
+            syncResult.stats.numAuthExceptions++;
         } catch (Exception exception) {
             Log.e(TAG, "Sync failed.", exception);
+        } finally {
+            try {
+                if (checkpoint != null) {
+                    checkpoint.save();
+                }
+                if (metering) {
+                    stopMetering();
+                }
+                monitor.stop();
+            } finally {
+                guard.finish(account, synced);
+            }
+        }
+    }
+
+    /**
+     * Starts to count traffic. Traffic is limited on metered networks and
+     * while roaming, so budget applies whenever sync moves to such network.
+     */
+    private void startMetering() {
+        long budget = config.dataBudget();
+        boolean limited = monitor.isLimited();
+        Log.d(TAG, format("Data budget %d bytes, limited %b.", budget,
+                limited));
+
+        webClient.getTrafficMeter().reset(monitor.getNetworkType(), limited,
+                budget);
+    }
+
+    /**
+     * Adds traffic of this sync to data usage.
+     */
+    private void stopMetering() {
+        TrafficMeter meter = webClient.getTrafficMeter();
+        for (String networkType : meter.getNetworkTypes()) {
+            long bytesIn = meter.getBytesIn(networkType);
+            long bytesOut = meter.getBytesOut(networkType);
+            Log.d(TAG, format("Received %d and sent %d bytes over %s.",
+                    bytesIn, bytesOut, networkType));
+
+            dataUsage.add(networkType, bytesIn, bytesOut);
         }
     }
 
+    /**
+     * Finds or creates group. Group is found with its title, so title is
+     * written only if it differs.
+     */
     private Group syncGroup(Account account, SyncResult results) {
         String uid = getContext().getString(R.string.group_uid);
-        String title = settings.groupTitle();
+        String title = config.groupTitle();
 
         try {
             Group group = groupsProvider.findByUid(account, uid);
-
             if (group == null) {
-                return groupsProvider.createGroup(account, uid, title);
+                group = groupsProvider.createGroup(account, uid, title);
+            } else if (!TextUtils.equals(group.getTitle(), title)) {
+                Log.d(TAG, "Title of group changed.");
+                groupsProvider.updateTitle(group, title);
+                group = new Group(uid, group.getId(), title);
             }
-
-            groupsProvider.updateTitle(group, title);
             return group;
         } catch (DataException exception) {
             results.databaseError = true;
@@ -125,191 +314,692 @@ public class SyncAdapter extends AbstractThreadedSyncAdapter {
         }
     }
 
-    private Map<String, Employee> getCoworkers(Account account,
-            SyncResult results) {
-        String username = account.name;
-        AccountManager accountManager = AccountManager.get(getContext());
-        String password = accountManager.getPassword(account);
+    /**
+     * Syncs contacts with directory. This phase is cheap, so it is not
+     * deferred.
+     */
+    private void syncDirectory(Account account, Group group, Bundle extras,
+            SyncCheckpoint checkpoint, SyncResult results) {
+        boolean preferNativeName = config.preferNativeNames();
+        boolean tracked = repairDirty(account, stateStore.isTracked(account));
+        tracked = tracked && validateState(account);
+        SyncPlanner planner = new SyncPlanner(preferNativeName,
+                config.syncPhotosEnabled());
+        SyncExecutor executor = new SyncExecutor(contactsProvider, stateStore,
+                account, group, planner, preferNativeName, tracked);
+
+        boolean allowed = extras.getBoolean(
+                ContentResolver.SYNC_EXTRAS_OVERRIDE_TOO_MANY_DELETIONS, false);
+        RemovalGuard guard = new RemovalGuard(stateStore, account,
+                config.removalDelay(), allowed);
 
+        SyncStats stats = results.stats;
+
+        if (!tracked) {
+            Log.d(TAG, "State not tracked yet.");
+        }
+
+        // Directory may be downloaded already during sign in, but only from
+        // the first source. State is filled after download, so contacts are
+        // pipelined only if state is tracked.
+        boolean single = sources.size() == 1;
+        Directory directory = single ? DirectoryHandoff.take(account,
+                getFields()) : null;
         try {
-            String serviceUrl = getContext().getString(R.string.rest_coworkers);
-            List<Employee> employees = webClient.getEmployees(serviceUrl,
-                    username, password);
-            return Employee.mapByUid(employees);
-        } catch (WebException exception) {
-            results.tooManyRetries = true;
-            throw new SyncException("Server not available.", exception);
+            if (directory != null) {
+                Log.d(TAG, "Directory handed off.");
+                directory = syncSerial(account, directory, planner, executor,
+                        guard, checkpoint, tracked, results);
+            } else if (single && tracked && DirectoryPipeline.isSupported()
+                    && !checkpoint.isPending()) {
+                directory = syncPipelined(account, planner, executor, guard,
+                        checkpoint, results);
+            } else {
+                directory = syncSerial(account, null, planner, executor,
+                        guard, checkpoint, tracked, results);
+            }
+        } finally {
+            executor.finishBulkImport();
         }
-    }
 
-    private Map<String, Contact> syncContacts(Account account, Group group,
-            Map<String, Employee> employees, SyncResult results) {
-        Map<String, Contact> contacts = Contact.mapByUid(contactsProvider
-                .findByGroup(group));
-        Log.d(TAG, format("Found %d contacts.", contacts.size()));
+        Log.d(TAG, format("Created %d contacts.", stats.numInserts));
+        Log.d(TAG, format("Updated %d contacts.", stats.numUpdates));
+        long numRemoved = stats.numDeletes - guard.getNumRefused();
+        Log.d(TAG, format("Removed %d contacts.", numRemoved));
+        Log.d(TAG, format("Skipped %d contacts.", stats.numSkippedEntries));
 
-        SyncStats stats = results.stats;
+        int numChanges = (int) (stats.numInserts + stats.numUpdates
+                + numRemoved);
+        scheduleNext(account, directory, numChanges);
 
-        List<Contact> createdContacts = createContacts(account, group,
-                employees, contacts, stats);
-        Log.d(TAG, format("Created %d contacts.", stats.numInserts));
+        if (config.notificationsEnabled()) {
+            StatusService.notify(getContext(), R.string.sync_completed);
+        }
+    }
 
-        updateContacts(employees, contacts, stats);
-        Log.d(TAG, format("Updated %d contacts.", stats.numUpdates));
+    /**
+     * Repairs membership of contacts in group, that may be changed by user or
+     * other applications. Membership is checked for all contacts and all
+     * groups at once.
+     */
+    private void syncMembers(Account account, Group group) {
+        Map<Group, Set<Long>> members = new HashMap<Group, Set<Long>>();
+        try {
+            members.put(group, contactsProvider.findIds(account));
+            members.putAll(syncSubGroups(account));
 
-        List<String> removedContacts = removeContacts(employees, contacts,
-                stats);
-        Log.d(TAG, format("Removed %d contacts.", stats.numDeletes));
+            int numFixed = groupsProvider.reconcileMembers(members);
+            Log.d(TAG, format("Fixed %d memberships.", numFixed));
+        } catch (DataException exception) {
+            Log.w(TAG, "Members not synced.", exception);
+        }
+    }
 
-        Log.d(TAG, format("Skipped %d contacts.", stats.numSkippedEntries));
+    /**
+     * Creates groups for teams, that appeared in contacts, and removes groups
+     * of teams, that disappeared. All groups are created and removed by
+     * single batch.
+     * 
+     * @return the members of teams by group.
+     */
+    private Map<Group, Set<Long>> syncSubGroups(Account account) {
+        String prefix = getContext().getString(R.string.group_uid) + '/';
+        Map<String, Group> groups = groupsProvider.findByPrefix(account,
+                prefix);
+
+        SubGroups subGroups = config.subGroups();
+        Map<String, Set<Long>> members = new HashMap<String, Set<Long>>();
+        Map<String, String> titles = new HashMap<String, String>();
+        if (subGroups != SubGroups.NONE) {
+            String column = Organization.OFFICE_LOCATION;
+            if (subGroups == SubGroups.DEPARTMENT) {
+                column = Organization.DEPARTMENT;
+            }
+            prefix += subGroups.name().toLowerCase(Locale.US) + '/';
+
+            Map<Long, String> teams = contactsProvider.findOrganizations(
+                    account, column);
+            for (Map.Entry<Long, String> team : teams.entrySet()) {
+                String uid = prefix + team.getValue();
+                Set<Long> ids = members.get(uid);
+                if (ids == null) {
+                    ids = new HashSet<Long>();
+                    members.put(uid, ids);
+                    titles.put(uid, team.getValue());
+                }
+                ids.add(team.getKey());
+            }
+        }
 
-        for (Contact contact : createdContacts) {
-            contacts.put(contact.getUid(), contact);
+        List<Group> obsolete = new ArrayList<Group>();
+        for (Group group : groups.values()) {
+            if (!members.containsKey(group.getUid())) {
+                obsolete.add(group);
+            }
         }
-        for (String uid : removedContacts) {
-            contacts.remove(uid);
+        if (!obsolete.isEmpty()) {
+            groupsProvider.removeGroups(obsolete);
         }
 
-        return contacts;
-    }
+        titles.keySet().removeAll(groups.keySet());
+        if (!titles.isEmpty()) {
+            groups.putAll(groupsProvider.createGroups(account, titles));
+        }
+        Log.d(TAG, format("Found %d teams, created %d, removed %d.",
+                members.size(), titles.size(), obsolete.size()));
 
-    private List<Contact> createContacts(Account account, Group group,
-            Map<String, Employee> employees, Map<String, Contact> contacts,
-            SyncStats stats) {
-        List<Contact> createdContacts = new ArrayList<Contact>();
+        Map<Group, Set<Long>> byGroup = new HashMap<Group, Set<Long>>();
+        for (Map.Entry<String, Set<Long>> entry : members.entrySet()) {
+            byGroup.put(groups.get(entry.getKey()), entry.getValue());
+        }
+        return byGroup;
+    }
 
-        boolean preferNativeName = settings.preferNativeNames();
+    /**
+     * Finds contacts, that were changed or removed by user. Sync does not
+     * mark contacts as dirty, so only these contacts may differ from state.
+     * 
+     * <p>
+     * Removed contacts are purged, so they are created again. State of
+     * changed contacts is discarded, so their data is compared with directory.
+     * If many contacts were changed, then state is discarded for all contacts.
+     * 
+     * @return <code>true</code> if state is still tracked and
+     *         <code>false</code> otherwise.
+     */
+    private boolean repairDirty(Account account, boolean tracked) {
+        List<DirtyContact> contacts = contactsProvider.findDirty(account);
+        if (contacts.isEmpty()) {
+            return tracked;
+        }
+        Log.d(TAG, format("Found %d dirty contacts.", contacts.size()));
 
-        for (Employee employee : employees.values()) {
-            String uid = employee.getUid();
-            if (contacts.containsKey(uid)) {
-                continue;
-            }
+        if (tracked && contacts.size() > MAX_REPAIRS) {
+            Log.d(TAG, "State discarded.");
+            stateStore.clear(account);
+            tracked = false;
+        }
 
+        boolean purge = false;
+        for (DirtyContact contact : contacts) {
             checkCancelled();
 
+            String uid = contact.getUid();
+            try {
+                if (contact.isDeleted()) {
+                    purge = true;
+                } else if (tracked) {
+                    Log.d(TAG, format("Repair contact for %s.", uid));
+                    contactsProvider.clearDirty(contact);
+                }
+
+                if (uid != null) {
+                    stateStore.removeContact(account, uid);
+                }
+            } catch (DataException exception) {
+                Log.w(TAG, "Not repaired.", exception);
+            }
+        }
+
+        if (purge) {
             try {
-                Log.d(TAG, format("Create contact for %s.", uid));
-                Contact contact = contactsProvider.createContact(account,
-                        group, employee, preferNativeName);
-                createdContacts.add(contact);
-                ++stats.numInserts;
+                int numPurged = contactsProvider.purgeDeleted(account);
+                Log.d(TAG, format("Purged %d contacts.", numPurged));
             } catch (DataException exception) {
-                Log.w(TAG, "Not created.", exception);
-                ++stats.numSkippedEntries;
+                Log.w(TAG, "Not purged.", exception);
             }
         }
+        if (!tracked) {
+            contactsProvider.clearDirty(account);
+        }
 
-        return createdContacts;
+        return tracked;
     }
 
     /**
-     * Updates existing contacts.
+     * Checks that tracked state refers only to existing contacts. Contacts
+     * are removed together with account, so state is discarded, if account
+     * was added again or contacts were removed without sync.
+     * 
+     * @return <code>true</code> if state is still tracked and
+     *         <code>false</code> otherwise.
      */
-    private void updateContacts(Map<String, Employee> employees,
-            Map<String, Contact> contacts, SyncStats stats) {
-        boolean preferNativeName = settings.preferNativeNames();
+    private boolean validateState(Account account) {
+        Set<Long> ids = contactsProvider.findIds(account);
+        if (ids.containsAll(stateStore.findIds(account))) {
+            return true;
+        }
 
-        for (Employee employee : employees.values()) {
-            String uid = employee.getUid();
-            if (!contacts.containsKey(uid)) {
-                continue;
+        Log.d(TAG, "State does not match contacts, discarded.");
+        stateStore.clear(account);
+        return false;
+    }
+
+    /**
+     * Downloads directory, merges it with contacts and then applies plan in
+     * order of unique identifiers, so sync can be resumed from checkpoint.
+     * 
+     * <p>
+     * If state is not tracked yet, then it is filled at once after download,
+     * so it is never tracked partially. State of unchanged contacts is
+     * recorded while plan is made.
+     * 
+     * @param downloaded
+     *            the directory, that was already downloaded, or
+     *            <code>null</code> if it should be downloaded.
+     */
+    private Directory syncSerial(Account account, Directory downloaded,
+            SyncPlanner planner, SyncExecutor executor, RemovalGuard guard,
+            SyncCheckpoint checkpoint, boolean tracked, SyncResult results) {
+        Directory directory = downloaded;
+        if (directory == null) {
+            directory = getCoworkers(account, results);
+        }
+        Log.d(TAG, format("Found %d employees.", directory.getSize()));
+
+        checkCancelled();
+
+        checkpoint.begin(getVersion(directory));
+
+        List<Employee> employees = directory.getEmployees();
+        CacheWriter cache = directoryCache.open(account);
+        for (Employee employee : employees) {
+            cache.write(employee);
+        }
+        cache.commit();
+
+        if (!tracked) {
+            stateStore.beginTransaction();
+        }
+        try {
+            SyncPlan plan = planContacts(account, planner, employees, tracked,
+                    tracked ? null : executor);
+            List<Contact> removes;
+            if (directory.isPartial()) {
+                // Missing employees may be listed by source, that was skipped.
+                Log.d(TAG, "Directory partial, removal skipped.");
+                removes = Collections.emptyList();
+            } else {
+                removes = guard.filter(plan.getRemoves(),
+                        plan.getNumContacts(), directory, results);
             }
-            Contact contact = contacts.get(uid);
 
-            checkCancelled();
+            if (plan.getCreates().size() >= BULK_IMPORT) {
+                executor.startBulkImport();
+            }
 
-            try {
-                Log.d(TAG, format("Update contact for %s.", uid));
-                contactsProvider.updateContact(contact, employee,
-                        preferNativeName);
-                ++stats.numUpdates;
-            } catch (DataException exception) {
-                Log.w(TAG, "Not updated.", exception);
-                ++stats.numSkippedEntries;
+            executor.execute(plan.withRemoves(removes), checkpoint,
+                    results.stats);
+
+            if (!tracked) {
+                SyncStats stats = results.stats;
+                if (stats.numSkippedEntries == 0 && !directory.isPartial()) {
+                    stateStore.setTracked(account);
+                }
+                stateStore.setTransactionSuccessful();
+            }
+        } finally {
+            if (!tracked) {
+                stateStore.endTransaction();
             }
         }
+        return directory;
     }
 
     /**
-     * Removes obsolete contacts.
+     * Creates and updates contacts while directory is downloaded. Obsolete
+     * contacts are removed after directory was downloaded completely.
+     * 
+     * <p>
+     * Employees come in order of directory, so progress is stored only after
+     * directory was downloaded. If sync is interrupted before, then it starts
+     * from the beginning. Employees come in no particular order, so contacts
+     * are kept in memory for lookup. Contacts are read from state, so state
+     * should be tracked.
      */
-    private List<String> removeContacts(Map<String, Employee> employees,
-            Map<String, Contact> contacts, SyncStats stats) {
-        List<String> removedContacts = new ArrayList<String>();
+    private Directory syncPipelined(Account account, SyncPlanner planner,
+            SyncExecutor executor, RemovalGuard guard,
+            SyncCheckpoint checkpoint, SyncResult results) {
+        Map<String, Contact> contacts = new TreeMap<String, Contact>(
+                Contact.UID_ORDER);
+        ContactIterator iterator = stateStore.openByAccount(account);
+        try {
+            while (iterator.hasNext()) {
+                Contact contact = iterator.next();
+                contacts.put(contact.getUid(), contact);
+            }
+        } finally {
+            iterator.close();
+        }
+        Log.d(TAG, format("Found %d contacts.", contacts.size()));
 
-        for (Contact contact : contacts.values()) {
-            String uid = contact.getUid();
-            if (employees.containsKey(uid)) {
+        // Directory size is not known yet, so only the first sync is bulk.
+        if (contacts.isEmpty()) {
+            executor.startBulkImport();
+        }
+
+        DirectoryPipeline pipeline = new DirectoryPipeline();
+        pipeline.start(webClient, sources.get(0), getFields(),
+                getAuthToken(account, results));
+
+        SyncStats stats = results.stats;
+
+        Set<String> uids = new HashSet<String>();
+        CacheWriter cache = directoryCache.open(account);
+
+        try {
+            List<Employee> employees;
+            while ((employees = pipeline.take()) != null) {
+                for (Employee employee : employees) {
+                    checkCancelled();
+
+                    String uid = employee.getUid();
+                    if (!uids.add(uid)) {
+                        continue;
+                    }
+                    cache.write(employee);
+
+                    Contact contact = contacts.get(uid);
+                    if (contact == null) {
+                        executor.create(employee, stats);
+                        continue;
+                    }
+
+                    Update update = planner.planUpdate(contact, employee);
+                    if (update != null) {
+                        executor.update(update, stats);
+                    }
+                }
+            }
+            cache.commit();
+        } catch (UnauthorizedException exception) {
+            throw exception;
+        } catch (WebException exception) {
+            results.tooManyRetries = true;
+            throw new SyncException("Server not available.", exception);
+        } finally {
+            cache.abort();
+            pipeline.cancel();
+        }
+
+        Directory directory = pipeline.getDirectory();
+        Log.d(TAG, format("Found %d employees.", uids.size()));
+
+        checkpoint.begin(getVersion(directory));
+        checkpoint.finish(Step.CREATE);
+        checkpoint.finish(Step.UPDATE);
+
+        List<Contact> removes = guard.filter(
+                planner.planRemoves(uids, contacts), contacts.size(),
+                directory, results);
+        executor.removeAll(removes, checkpoint, stats);
+
+        return directory;
+    }
+
+    /**
+     * Rewrites names of contacts from cached directory, after preferred
+     * language of names was changed. Other data is not changed. If directory
+     * is not cached, then full sync is requested.
+     */
+    private void syncNames(Account account, Group group, SyncResult results) {
+        List<Employee> employees = directoryCache.read(account);
+        if (employees == null) {
+            Log.d(TAG, "Directory not cached.");
+            SyncScheduler.requestPhase(account, SyncPhase.DIRECTORY);
+            return;
+        }
+
+        boolean preferNativeName = config.preferNativeNames();
+        boolean tracked = stateStore.isTracked(account);
+        SyncPlanner planner = new SyncPlanner(preferNativeName,
+                config.syncPhotosEnabled());
+        SyncExecutor executor = new SyncExecutor(contactsProvider, stateStore,
+                account, group, planner, preferNativeName, tracked);
+
+        SyncPlan plan = planContacts(account, planner, employees, tracked,
+                null);
+        List<String> kinds = Collections
+                .singletonList(StructuredName.CONTENT_ITEM_TYPE);
+        for (Update update : plan.getUpdates()) {
+            if (!update.getKinds().contains(StructuredName.CONTENT_ITEM_TYPE)) {
                 continue;
             }
 
             checkCancelled();
 
-            try {
-                Log.d(TAG, format("Remove contact for %s.", uid));
-                contactsProvider.removeContact(contact);
-                removedContacts.add(uid);
-                ++stats.numDeletes;
-            } catch (DataException exception) {
-                Log.w(TAG, "Not removed.", exception);
-                ++stats.numSkippedEntries;
-            }
+            executor.update(new Update(update.getContact(),
+                    update.getEmployee(), kinds), results.stats);
+        }
+        Log.d(TAG, format("Rewrote %d names.", results.stats.numUpdates));
+    }
+
+    /**
+     * Plans reconcile and logs plan without changing contacts.
+     */
+    private void planDryRun(Account account, SyncResult results) {
+        Directory directory = getCoworkers(account, results);
+        Log.d(TAG, format("Found %d employees.", directory.getSize()));
+
+        SyncPlanner planner = new SyncPlanner(config.preferNativeNames(),
+                config.syncPhotosEnabled());
+        SyncPlan plan = planContacts(account, planner,
+                directory.getEmployees(), stateStore.isTracked(account), null);
+
+        for (Employee employee : plan.getCreates()) {
+            Log.d(TAG, format("Create contact for %s.", employee.getUid()));
+        }
+        for (Update update : plan.getUpdates()) {
+            Log.d(TAG, format("Update %s for %s.", update.getKinds(), update
+                    .getContact().getUid()));
+        }
+        for (Contact contact : plan.getRemoves()) {
+            Log.d(TAG, format("Remove contact for %s.", contact.getUid()));
+        }
+        for (String uid : plan.getPhotos()) {
+            Log.d(TAG, format("Download photo for %s.", uid));
+        }
+        Log.i(TAG, format("Dry run: %s.", plan));
+    }
+
+    /**
+     * Opens contacts in order of their unique identifiers.
+     * 
+     * @param tracked
+     *            indicates that state of sync may be used instead of contacts
+     *            provider.
+     */
+    private ContactIterator openContacts(Account account, boolean tracked) {
+        if (tracked) {
+            return stateStore.openByAccount(account);
+        }
+        return contactsProvider.openByAccount(account);
+    }
+
+    /**
+     * Merges directory with contacts, that are read one by one.
+     * 
+     * @param handler
+     *            the handler for contacts, that are up to date, or
+     *            <code>null</code> if they are not needed.
+     */
+    private SyncPlan planContacts(Account account, SyncPlanner planner,
+            List<Employee> employees, boolean tracked,
+            UnchangedHandler handler) {
+        ContactIterator contacts = openContacts(account, tracked);
+        try {
+            SyncPlan plan = planner.plan(employees, contacts, handler);
+            Log.d(TAG, format("Plan: %s.", plan));
+            return plan;
+        } finally {
+            contacts.close();
+        }
+    }
+
+    private Directory getCoworkers(Account account, SyncResult results) {
+        try {
+            DirectorySources all = new DirectorySources(webClient, sources);
+            return all.fetch(getFields(), getAuthToken(account, results));
+        } catch (UnauthorizedException exception) {
+            throw exception;
+        } catch (WebException exception) {
+            results.tooManyRetries = true;
+            throw new SyncException("Server not available.", exception);
+        }
+    }
+
+    /**
+     * Returns the projection of directory, that requests only fields, which
+     * are used with the current settings.
+     */
+    private String getFields() {
+        return Employee.projection(config.preferNativeNames(),
+                config.syncPhotosEnabled());
+    }
+
+    /**
+     * Returns session token. Token is cached by {@link AccountManager}, so
+     * password is checked by service only when token is issued.
+     */
+    private String getAuthToken(Account account, SyncResult results) {
+        if (authToken != null) {
+            return authToken;
+        }
+
+        AccountManager accountManager = AccountManager.get(getContext());
+        try {
+            authToken = accountManager.blockingGetAuthToken(account,
+                    Autheticator.AUTH_TOKEN_TYPE, true);
+        } catch (OperationCanceledException exception) {
+            throw new SyncException("Token not obtained.", exception);
+        } catch (AuthenticatorException exception) {
+            results.stats.numAuthExceptions++;
+            throw new SyncException("Token not obtained.", exception);
+        } catch (IOException exception) {
+            results.stats.numIoExceptions++;
+            throw new SyncException("Token not obtained.", exception);
+        }
+
+        if (authToken == null) {
+            results.stats.numAuthExceptions++;
+            throw new SyncException("Token not issued.");
         }
+        return authToken;
+    }
 
-        return removedContacts;
+    /**
+     * Removes token from cache, so new token is obtained next time.
+     */
+    private void invalidateAuthToken(Account account) {
+        AccountManager accountManager = AccountManager.get(getContext());
+        accountManager.invalidateAuthToken(account.type, authToken);
+        authToken = null;
     }
 
-    private void syncPhotos(Map<String, Contact> contacts) {
-        if (!settings.syncPhotosEnabled()) {
+    /**
+     * Returns the version of data, that is written into contacts.
+     */
+    private String getVersion(Directory directory) {
+        return directory.getVersion() + '/' + config.preferNativeNames() + '/'
+                + config.syncPhotosEnabled();
+    }
+
+    /**
+     * Syncs photos. This phase is heavy, so it is deferred until device is
+     * ready for it.
+     */
+    private void syncPhotos(Account account, SyncCheckpoint checkpoint,
+            SyncStats stats) {
+        if (!config.syncPhotosEnabled()) {
             Log.d(TAG, "Sync of photos disabled.");
+            checkpoint.finishPhotos();
+            constraints.complete(account);
+            SyncScheduler.cancelDeferred(account, SyncPhase.PHOTOS);
             return;
         }
 
-        for (Contact contact : contacts.values()) {
-            checkCancelled();
+        SyncScheduler.scheduleDeferred(account, SyncPhase.PHOTOS);
 
-            try {
-                Log.d(TAG, format("Sync photo for %s.", contact.getUid()));
+        boolean overWifiOnly = config.syncPhotosOverWifiOnly();
+        if (!constraints.allowHeavy(account, overWifiOnly)) {
+            Log.d(TAG, "Sync of photos deferred.");
+            constraints.defer(account);
+            return;
+        }
 
-                syncPhoto(contact);
-            } catch (DataException exception) {
-                Log.w(TAG, "Not synced.", exception);
+        TrafficMeter meter = webClient.getTrafficMeter();
+        int numDeferred = 0;
+
+        ContactIterator contacts = openContacts(account,
+                stateStore.isTracked(account));
+        try {
+            while (contacts.hasNext()) {
+                checkCancelled();
+
+                Contact contact = contacts.next();
+                String uid = contact.getUid();
+                ContactPhoto photo = contact.getPhoto();
+                if (checkpoint.isPhotoDone(uid) || photo == null
+                        || photo.isSynced()) {
+                    continue;
+                }
+
+                if (!monitor.isSuitable(overWifiOnly)) {
+                    Log.d(TAG, "Network changed, sync of photos paused.");
+                    constraints.defer(account);
+                    return;
+                }
+
+                if (meter.isExhausted()) {
+                    ++numDeferred;
+                    continue;
+                }
+
+                try {
+                    Log.d(TAG, format("Sync photo for %s.", uid));
+
+                    syncPhoto(account, contact);
+                } catch (DataException exception) {
+                    Log.w(TAG, "Not synced.", exception);
+                }
+
+                checkpoint.progressPhoto(uid);
             }
+        } finally {
+            contacts.close();
         }
-    }
 
-    private void syncPhoto(Contact contact) {
-        if (!connectivity.isSuitable(settings.syncPhotosOverWifiOnly())) {
+        if (numDeferred > 0) {
+            Log.d(TAG, format("Data budget used up, %d photos deferred.",
+                    numDeferred));
+            stats.numSkippedEntries += numDeferred;
+            constraints.defer(account);
             return;
         }
 
-        ContactPhoto photo = contactsProvider.findPhoto(contact);
+        checkpoint.finishPhotos();
+        constraints.complete(account);
+        SyncScheduler.cancelDeferred(account, SyncPhase.PHOTOS);
+    }
 
-        if (photo.isSynced()) {
+    /**
+     * Syncs photo of contact. Image is not written, if it is the same as
+     * image, that was written before.
+     */
+    private void syncPhoto(Account account, Contact contact) {
+        ContactPhoto photo = contact.getPhoto();
+
+        if (photo == null || photo.isSynced()) {
             Log.d(TAG, "Photo is up to date.");
             return;
         }
 
-        if (TextUtils.isEmpty(photo.getUrl())) {
+        String url = photo.getUrl();
+        if (TextUtils.isEmpty(url)) {
             Log.d(TAG, "Remove photo.");
             contactsProvider.updatePhoto(contact, null);
+            stateStore.savePhoto(account, contact.getUid(), new ContactPhoto(
+                    url, true));
             return;
         }
 
         try {
-            Log.d(TAG, "Update photo.");
-            byte[] image = webClient.getPhoto(photo.getUrl());
-            contactsProvider.updatePhoto(contact, image);
+            byte[] image = webClient.getPhoto(url);
+            String hash = Fingerprint.of(image);
+            if (hash.equals(photo.getHash())) {
+                Log.d(TAG, "Photo not changed.");
+            } else {
+                Log.d(TAG, "Update photo.");
+                contactsProvider.updatePhoto(contact, image);
+            }
+            stateStore.savePhoto(account, contact.getUid(), new ContactPhoto(
+                    url, true, hash));
         } catch (WebException exception) {
             throw new DataException("Photo not available.", exception);
         }
     }
 
+    /**
+     * Schedules next sync according to settings.
+     */
+    private void scheduleNext(Account account, Directory directory,
+            int numChanges) {
+        SyncFrequency frequency = config.syncFrequency();
+        if (frequency != SyncFrequency.ADAPTIVE) {
+            SyncScheduler.scheduleNext(account, frequency);
+            return;
+        }
+
+        long interval = adaptiveFrequency.nextInterval(account,
+                directory.getVersion(), numChanges, directory.getSize(),
+                directory.getMaxAge());
+        SyncScheduler.scheduleNext(account, interval);
+    }
+
     /**
      * Checks, that synchronization was cancelled.
      */
-    private void checkCancelled() {
+    static void checkCancelled() {
         boolean cancelled = currentThread().isInterrupted();
         if (cancelled) {
             throw new SyncException("Sync was cancelled.");
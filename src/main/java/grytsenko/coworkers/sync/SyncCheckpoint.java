@@ -0,0 +1,217 @@
+/**
+ * Copyright (C) 2013 Anton Grytsenko (anthony.grytsenko@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grytsenko.coworkers.sync;
+
+import static java.lang.String.format;
+import grytsenko.coworkers.data.Contact;
+import android.accounts.Account;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.text.TextUtils;
+import android.util.Log;
+
+/**
+ * Progress of sync, that is stored to resume sync after it was cancelled or
+ * process was killed.
+ * 
+ * <p>
+ * Contacts are processed in order of their unique identifiers, so progress
+ * within step is the identifier of the last processed contact. Progress of
+ * contacts is valid only for the same version of directory. Progress of photos
+ * is valid until all photos are synced.
+ */
+public class SyncCheckpoint {
+
+    private static final String TAG = SyncCheckpoint.class.getName();
+
+    private static final String PREFERENCES = "sync_checkpoint";
+
+    private static final String VERSION = ".version";
+    private static final String STEP = ".step";
+    private static final String UID = ".uid";
+    private static final String PHOTO_UID = ".photo_uid";
+
+    /**
+     * The number of processed contacts, after which progress is stored.
+     */
+    private static final int BATCH_SIZE = 25;
+
+    /**
+     * Step of sync.
+     */
+    public enum Step {
+        CREATE, UPDATE, REMOVE, DONE
+    }
+
+    private SharedPreferences preferences;
+    private String key;
+
+    private String version;
+    private Step step;
+    private String uid;
+    private String photoUid;
+
+    private int numUnsaved;
+
+    /**
+     * Loads progress of sync.
+     * 
+     * @param context
+     *            the context to use.
+     * @param account
+     *            the account.
+     */
+    public SyncCheckpoint(Context context, Account account) {
+        preferences = context.getSharedPreferences(PREFERENCES,
+                Context.MODE_PRIVATE);
+        key = account.name;
+
+        version = preferences.getString(key + VERSION, null);
+        String savedStep = preferences.getString(key + STEP, null);
+        step = savedStep != null ? Step.valueOf(savedStep) : Step.DONE;
+        uid = preferences.getString(key + UID, null);
+        photoUid = preferences.getString(key + PHOTO_UID, null);
+    }
+
+    /**
+     * Starts sync of directory. If progress was stored for another version of
+     * directory, then sync starts from the beginning.
+     * 
+     * @param newVersion
+     *            the version of directory.
+     */
+    public void begin(String newVersion) {
+        if (TextUtils.equals(version, newVersion) && step != Step.DONE) {
+            Log.d(TAG, format("Resume from %s after %s.", step, uid));
+            return;
+        }
+
+        version = newVersion;
+        step = Step.CREATE;
+        uid = null;
+        save();
+    }
+
+    /**
+     * Checks that sync of directory was interrupted.
+     * 
+     * @return <code>true</code> if sync of directory may be resumed and
+     *         <code>false</code> otherwise.
+     */
+    public boolean isPending() {
+        return step != Step.DONE;
+    }
+
+    /**
+     * Checks that contact was already processed at this step.
+     * 
+     * @param currentStep
+     *            the current step.
+     * @param currentUid
+     *            the identifier of contact.
+     * 
+     * @return <code>true</code> if contact should be skipped and
+     *         <code>false</code> otherwise.
+     */
+    public boolean isDone(Step currentStep, String currentUid) {
+        if (currentStep.compareTo(step) < 0) {
+            return true;
+        }
+        return currentStep == step && uid != null
+                && Contact.UID_ORDER.compare(currentUid, uid) <= 0;
+    }
+
+    /**
+     * Records that contact was processed. Progress is stored in batches.
+     * 
+     * @param currentStep
+     *            the current step.
+     * @param currentUid
+     *            the identifier of contact.
+     */
+    public void progress(Step currentStep, String currentUid) {
+        step = currentStep;
+        uid = currentUid;
+
+        if (++numUnsaved >= BATCH_SIZE) {
+            save();
+        }
+    }
+
+    /**
+     * Records that step was completed.
+     * 
+     * @param completedStep
+     *            the completed step.
+     */
+    public void finish(Step completedStep) {
+        if (completedStep.compareTo(step) < 0) {
+            return;
+        }
+
+        step = Step.values()[completedStep.ordinal() + 1];
+        uid = null;
+        save();
+    }
+
+    /**
+     * Checks that photo of contact was already synced.
+     * 
+     * @param currentUid
+     *            the identifier of contact.
+     * 
+     * @return <code>true</code> if photo should be skipped and
+     *         <code>false</code> otherwise.
+     */
+    public boolean isPhotoDone(String currentUid) {
+        return photoUid != null
+                && Contact.UID_ORDER.compare(currentUid, photoUid) <= 0;
+    }
+
+    /**
+     * Records that photo of contact was synced. Progress is stored in
+     * batches.
+     * 
+     * @param currentUid
+     *            the identifier of contact.
+     */
+    public void progressPhoto(String currentUid) {
+        photoUid = currentUid;
+
+        if (++numUnsaved >= BATCH_SIZE) {
+            save();
+        }
+    }
+
+    /**
+     * Records that all photos were synced.
+     */
+    public void finishPhotos() {
+        photoUid = null;
+        save();
+    }
+
+    /**
+     * Stores progress immediately.
+     */
+    public void save() {
+        preferences.edit().putString(key + VERSION, version)
+                .putString(key + STEP, step.name()).putString(key + UID, uid)
+                .putString(key + PHOTO_UID, photoUid).commit();
+        numUnsaved = 0;
+    }
+
+}
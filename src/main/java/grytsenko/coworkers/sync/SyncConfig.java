@@ -0,0 +1,119 @@
+/**
+ * Copyright (C) 2013 Anton Grytsenko (anthony.grytsenko@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grytsenko.coworkers.sync;
+
+import grytsenko.coworkers.util.GeneralSettings;
+import grytsenko.coworkers.util.SubGroups;
+import grytsenko.coworkers.util.SyncFrequency;
+
+/**
+ * Settings, that are read once when sync starts. Sync reads fields of this
+ * snapshot instead of preferences, so settings do not change during sync.
+ */
+final class SyncConfig {
+
+    private final String groupTitle;
+    private final SubGroups subGroups;
+    private final boolean syncPhotosEnabled;
+    private final boolean syncPhotosOverWifiOnly;
+    private final long dataBudget;
+    private final long removalDelay;
+    private final boolean preferNativeNames;
+    private final SyncFrequency syncFrequency;
+    private final boolean notificationsEnabled;
+
+    /**
+     * Takes snapshot of settings.
+     * 
+     * @param settings
+     *            the current settings.
+     */
+    public SyncConfig(GeneralSettings settings) {
+        groupTitle = settings.groupTitle();
+        subGroups = settings.subGroups();
+        syncPhotosEnabled = settings.syncPhotosEnabled();
+        syncPhotosOverWifiOnly = settings.syncPhotosOverWifiOnly();
+        dataBudget = settings.dataBudget();
+        removalDelay = settings.removalDelay();
+        preferNativeNames = settings.preferNativeNames();
+        syncFrequency = settings.syncFrequency();
+        notificationsEnabled = settings.notificationsEnabled();
+    }
+
+    /**
+     * @see GeneralSettings#groupTitle()
+     */
+    public String groupTitle() {
+        return groupTitle;
+    }
+
+    /**
+     * @see GeneralSettings#subGroups()
+     */
+    public SubGroups subGroups() {
+        return subGroups;
+    }
+
+    /**
+     * @see GeneralSettings#syncPhotosEnabled()
+     */
+    public boolean syncPhotosEnabled() {
+        return syncPhotosEnabled;
+    }
+
+    /**
+     * @see GeneralSettings#syncPhotosOverWifiOnly()
+     */
+    public boolean syncPhotosOverWifiOnly() {
+        return syncPhotosOverWifiOnly;
+    }
+
+    /**
+     * @see GeneralSettings#dataBudget()
+     */
+    public long dataBudget() {
+        return dataBudget;
+    }
+
+    /**
+     * @see GeneralSettings#removalDelay()
+     */
+    public long removalDelay() {
+        return removalDelay;
+    }
+
+    /**
+     * @see GeneralSettings#preferNativeNames()
+     */
+    public boolean preferNativeNames() {
+        return preferNativeNames;
+    }
+
+    /**
+     * @see GeneralSettings#syncFrequency()
+     */
+    public SyncFrequency syncFrequency() {
+        return syncFrequency;
+    }
+
+    /**
+     * @see GeneralSettings#notificationsEnabled()
+     */
+    public boolean notificationsEnabled() {
+        return notificationsEnabled;
+    }
+
+}
@@ -0,0 +1,336 @@
+/**
+ * Copyright (C) 2013 Anton Grytsenko (anthony.grytsenko@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grytsenko.coworkers.sync;
+
+import static grytsenko.coworkers.sync.SyncAdapter.checkCancelled;
+import static java.lang.String.format;
+import grytsenko.coworkers.data.Contact;
+import grytsenko.coworkers.data.ContactPhoto;
+import grytsenko.coworkers.data.ContactsProvider;
+import grytsenko.coworkers.data.DataException;
+import grytsenko.coworkers.data.Group;
+import grytsenko.coworkers.data.SyncStateStore;
+import grytsenko.coworkers.sync.SyncCheckpoint.Step;
+import grytsenko.coworkers.sync.SyncPlan.Update;
+import grytsenko.coworkers.sync.SyncPlanner.UnchangedHandler;
+import grytsenko.coworkers.web.Employee;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import android.accounts.Account;
+import android.content.ContentValues;
+import android.content.SyncStats;
+import android.os.SystemClock;
+import android.provider.ContactsContract.CommonDataKinds.Photo;
+import android.util.Log;
+
+/**
+ * Applies plan of reconcile to contacts.
+ * 
+ * <p>
+ * Each contact is changed by single batch, so contacts, that were created
+ * before sync was interrupted, are found in the next snapshot and they are
+ * not created again. Progress is stored in checkpoint.
+ * 
+ * <p>
+ * Each change is recorded in {@link SyncStateStore}. If snapshot was read
+ * from state, then contact may be created before its state was recorded, so
+ * contacts provider is checked before contact is created.
+ * 
+ * <p>
+ * During bulk import contacts are created with suspended aggregation and
+ * aggregation is resumed for all of them at once when import is finished.
+ */
+final class SyncExecutor implements UnchangedHandler {
+
+    private static final String TAG = SyncExecutor.class.getName();
+
+    /**
+     * The maximum number of contacts, that are removed by single operation.
+     */
+    private static final int REMOVE_CHUNK = 100;
+
+    private final ContactsProvider contactsProvider;
+    private final SyncStateStore stateStore;
+    private final Account account;
+    private final Group group;
+    private final SyncPlanner planner;
+    private final boolean preferNativeName;
+    private final boolean tracked;
+
+    private boolean bulkImport;
+    private int numCreated;
+    private long createTime;
+
+    /**
+     * Creates executor.
+     * 
+     * @param contactsProvider
+     *            the provider of contacts.
+     * @param stateStore
+     *            the state of sync.
+     * @param account
+     *            the current user account.
+     * @param group
+     *            the group, that contains contacts.
+     * @param planner
+     *            the planner, that computes fingerprints.
+     * @param preferNativeName
+     *            indicates that name in native language is preferred.
+     * @param tracked
+     *            indicates that snapshot of contacts was read from state.
+     */
+    public SyncExecutor(ContactsProvider contactsProvider,
+            SyncStateStore stateStore, Account account, Group group,
+            SyncPlanner planner, boolean preferNativeName, boolean tracked) {
+        this.contactsProvider = contactsProvider;
+        this.stateStore = stateStore;
+        this.account = account;
+        this.group = group;
+        this.planner = planner;
+        this.preferNativeName = preferNativeName;
+        this.tracked = tracked;
+    }
+
+    /**
+     * Starts bulk import, so contacts are created with suspended aggregation.
+     */
+    public void startBulkImport() {
+        Log.d(TAG, "Bulk import started.");
+        bulkImport = true;
+    }
+
+    /**
+     * Resumes aggregation of contacts, that were created during bulk import.
+     * Contacts are resumed even if import was not started by this executor,
+     * so contacts of interrupted import are aggregated too.
+     */
+    public void finishBulkImport() {
+        Log.d(TAG, format("Created %d contacts in %d ms, bulk import %b.",
+                numCreated, createTime, bulkImport));
+        bulkImport = false;
+
+        try {
+            long startedAt = SystemClock.elapsedRealtime();
+            int numResumed = contactsProvider.resumeAggregation(account);
+            Log.d(TAG, format("Resumed aggregation of %d contacts in %d ms.",
+                    numResumed, SystemClock.elapsedRealtime() - startedAt));
+        } catch (DataException exception) {
+            Log.w(TAG, "Aggregation not resumed.", exception);
+        }
+    }
+
+    /**
+     * Applies plan.
+     * 
+     * @param plan
+     *            the plan to apply.
+     * @param checkpoint
+     *            the progress of sync.
+     * @param stats
+     *            the statistics of sync.
+     */
+    public void execute(SyncPlan plan, SyncCheckpoint checkpoint,
+            SyncStats stats) {
+        for (Employee employee : plan.getCreates()) {
+            String uid = employee.getUid();
+            if (checkpoint.isDone(Step.CREATE, uid)) {
+                continue;
+            }
+
+            checkCancelled();
+
+            create(employee, stats);
+
+            checkpoint.progress(Step.CREATE, uid);
+        }
+        checkpoint.finish(Step.CREATE);
+
+        for (Update update : plan.getUpdates()) {
+            String uid = update.getContact().getUid();
+            if (checkpoint.isDone(Step.UPDATE, uid)) {
+                continue;
+            }
+
+            checkCancelled();
+
+            update(update, stats);
+
+            checkpoint.progress(Step.UPDATE, uid);
+        }
+        checkpoint.finish(Step.UPDATE);
+
+        removeAll(plan.getRemoves(), checkpoint, stats);
+    }
+
+    /**
+     * Removes obsolete contacts. Contacts are removed in chunks, so each
+     * chunk is removed by single operation.
+     * 
+     * @param contacts
+     *            the contacts to remove.
+     * @param checkpoint
+     *            the progress of sync.
+     * @param stats
+     *            the statistics of sync.
+     */
+    public void removeAll(List<Contact> contacts, SyncCheckpoint checkpoint,
+            SyncStats stats) {
+        List<Contact> chunk = new ArrayList<Contact>(REMOVE_CHUNK);
+        for (Contact contact : contacts) {
+            if (checkpoint.isDone(Step.REMOVE, contact.getUid())) {
+                continue;
+            }
+
+            chunk.add(contact);
+            if (chunk.size() >= REMOVE_CHUNK) {
+                removeChunk(chunk, checkpoint, stats);
+                chunk.clear();
+            }
+        }
+
+        if (!chunk.isEmpty()) {
+            removeChunk(chunk, checkpoint, stats);
+        }
+        checkpoint.finish(Step.REMOVE);
+    }
+
+    private void removeChunk(List<Contact> contacts,
+            SyncCheckpoint checkpoint, SyncStats stats) {
+        checkCancelled();
+
+        try {
+            Log.d(TAG, format("Remove %d contacts.", contacts.size()));
+            contactsProvider.removeContacts(contacts);
+            stats.numDeletes += contacts.size();
+
+            stateStore.removeContacts(account, contacts);
+        } catch (DataException exception) {
+            Log.w(TAG, "Not removed at once.", exception);
+            for (Contact contact : contacts) {
+                remove(contact, stats);
+            }
+        }
+
+        String lastUid = contacts.get(contacts.size() - 1).getUid();
+        checkpoint.progress(Step.REMOVE, lastUid);
+    }
+
+    /**
+     * Creates contact for employee.
+     */
+    public void create(Employee employee, SyncStats stats) {
+        String uid = employee.getUid();
+        try {
+            if (tracked) {
+                Contact contact = contactsProvider.findByUid(account, uid);
+                if (contact != null) {
+                    Log.d(TAG, format("Contact for %s already exists.", uid));
+                    Update update = planner.planUpdate(contact, employee);
+                    if (update != null) {
+                        update(update, stats);
+                    } else {
+                        keep(contact, employee);
+                    }
+                    return;
+                }
+            }
+
+            Log.d(TAG, format("Create contact for %s.", uid));
+            long startedAt = SystemClock.elapsedRealtime();
+            Contact contact = contactsProvider.createContact(account, group,
+                    employee, preferNativeName, bulkImport);
+            createTime += SystemClock.elapsedRealtime() - startedAt;
+            ++numCreated;
+            ++stats.numInserts;
+
+            saveState(contact, planner.fingerprint(employee), new ContactPhoto(
+                    employee.getPhoto(), false));
+        } catch (DataException exception) {
+            Log.w(TAG, "Not created.", exception);
+            ++stats.numSkippedEntries;
+        }
+    }
+
+    /**
+     * Writes changed data of contact. Data of other types keeps its
+     * fingerprints, so it is compared again by the next sync, if update
+     * contains only some of changed types.
+     */
+    public void update(Update update, SyncStats stats) {
+        try {
+            Log.d(TAG, format("Update %s for %s.", update.getKinds(),
+                    update.getContact().getUid()));
+            Contact contact = update.getContact();
+            Employee employee = update.getEmployee();
+            contactsProvider.updateContact(contact, employee,
+                    preferNativeName, update.getKinds());
+            ++stats.numUpdates;
+
+            Map<String, String> fingerprints = planner.fingerprint(employee);
+            for (Map.Entry<String, String> previous : contact.getFingerprints()
+                    .entrySet()) {
+                if (!update.getKinds().contains(previous.getKey())) {
+                    fingerprints.put(previous.getKey(), previous.getValue());
+                }
+            }
+
+            ContactPhoto photo = contact.getPhoto();
+            if (update.getKinds().contains(Photo.CONTENT_ITEM_TYPE)) {
+                photo = new ContactPhoto(employee.getPhoto(), false);
+            }
+            saveState(contact, fingerprints, photo);
+        } catch (DataException exception) {
+            Log.w(TAG, "Not updated.", exception);
+            ++stats.numSkippedEntries;
+        }
+    }
+
+    /**
+     * Removes contact.
+     */
+    public void remove(Contact contact, SyncStats stats) {
+        try {
+            Log.d(TAG, format("Remove contact for %s.", contact.getUid()));
+            contactsProvider.removeContact(contact);
+            ++stats.numDeletes;
+
+            stateStore.removeContact(account, contact.getUid());
+        } catch (DataException exception) {
+            Log.w(TAG, "Not removed.", exception);
+            ++stats.numSkippedEntries;
+        }
+    }
+
+    /**
+     * Records state of contact, that is up to date.
+     */
+    @Override
+    public void keep(Contact contact, Employee employee) {
+        saveState(contact, planner.fingerprint(employee), contact.getPhoto());
+    }
+
+    private void saveState(Contact contact, Map<String, String> fingerprints,
+            ContactPhoto photo) {
+        Map<String, ContentValues> data = Collections.emptyMap();
+        stateStore.saveContact(account, new Contact(contact.getUid(),
+                contact.getId(), data, fingerprints, photo));
+    }
+
+}
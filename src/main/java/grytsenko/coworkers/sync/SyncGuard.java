@@ -0,0 +1,185 @@
+/**
+ * Copyright (C) 2013 Anton Grytsenko (anthony.grytsenko@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grytsenko.coworkers.sync;
+
+import static java.lang.String.format;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import android.accounts.Account;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+/**
+ * Coalesces syncs of account, so back-to-back requests do not download
+ * directory again.
+ * 
+ * <p>
+ * Regular sync is skipped if another sync of the same account is running or
+ * directory was synced a moment ago, because its result is the same. The
+ * reason of the last skip is stored, so it can be inspected later.
+ */
+public class SyncGuard {
+
+    private static final String TAG = SyncGuard.class.getName();
+
+    private static final String PREFERENCES = "sync_guard";
+
+    private static final String FINISHED = ".finished";
+    private static final String SKIP_REASON = ".skip_reason";
+    private static final String SKIPPED = ".skipped";
+
+    /**
+     * The number of milliseconds after sync of directory, during which
+     * directory is considered fresh.
+     */
+    private static final long FRESHNESS = 2 * 60 * 1000;
+
+    /**
+     * The reason, why sync was skipped.
+     */
+    public enum SkipReason {
+
+        /**
+         * Another sync of account was running.
+         */
+        RUNNING,
+
+        /**
+         * Directory was synced during freshness window.
+         */
+        FRESH
+
+    }
+
+    /**
+     * The names of accounts, which syncs are running in this process.
+     */
+    private static final Set<String> RUNNING_ACCOUNTS = new HashSet<String>();
+
+    private SharedPreferences preferences;
+
+    /**
+     * Creates guard.
+     * 
+     * @param context
+     *            the context to use.
+     */
+    public SyncGuard(Context context) {
+        preferences = context.getSharedPreferences(PREFERENCES,
+                Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Starts sync of account, unless it should be coalesced with another one.
+     * 
+     * @param account
+     *            the account to sync.
+     * @param regular
+     *            indicates that sync may be coalesced, because it does not
+     *            target specific phase.
+     * 
+     * @return <code>null</code> if sync was started or the reason, why it was
+     *         skipped.
+     */
+    SkipReason tryStart(Account account, boolean regular) {
+        synchronized (RUNNING_ACCOUNTS) {
+            if (regular) {
+                if (RUNNING_ACCOUNTS.contains(account.name)) {
+                    return skip(account, SkipReason.RUNNING);
+                }
+
+                long finished = preferences.getLong(account.name + FINISHED, 0);
+                long elapsed = System.currentTimeMillis() - finished;
+                if (elapsed >= 0 && elapsed < FRESHNESS) {
+                    return skip(account, SkipReason.FRESH);
+                }
+            }
+
+            RUNNING_ACCOUNTS.add(account.name);
+            return null;
+        }
+    }
+
+    /**
+     * Finishes sync of account.
+     * 
+     * @param account
+     *            the synced account.
+     * @param synced
+     *            indicates that directory was synced, so it is fresh now.
+     */
+    void finish(Account account, boolean synced) {
+        synchronized (RUNNING_ACCOUNTS) {
+            RUNNING_ACCOUNTS.remove(account.name);
+            if (synced) {
+                preferences.edit()
+                        .putLong(account.name + FINISHED,
+                                System.currentTimeMillis()).commit();
+            }
+        }
+    }
+
+    private SkipReason skip(Account account, SkipReason reason) {
+        Log.d(TAG, format("Sync skipped, reason %s.", reason));
+        preferences.edit().putString(account.name + SKIP_REASON, reason.name())
+                .putLong(account.name + SKIPPED, System.currentTimeMillis())
+                .commit();
+        return reason;
+    }
+
+    /**
+     * Forgets everything about syncs of account, so the first sync of new
+     * account with the same name is not skipped.
+     * 
+     * @param account
+     *            the added account.
+     */
+    public void reset(Account account) {
+        preferences.edit().remove(account.name + FINISHED)
+                .remove(account.name + SKIP_REASON)
+                .remove(account.name + SKIPPED).commit();
+    }
+
+    /**
+     * Returns the reason, why the last sync of account was skipped.
+     * 
+     * @param account
+     *            the account.
+     * 
+     * @return the reason or <code>null</code> if no sync was skipped.
+     */
+    public SkipReason getSkipReason(Account account) {
+        String reason = preferences.getString(account.name + SKIP_REASON, null);
+        return reason != null ? SkipReason.valueOf(reason) : null;
+    }
+
+    /**
+     * Returns the time, when the last sync of account was skipped.
+     * 
+     * @param account
+     *            the account.
+     * 
+     * @return the number of milliseconds since epoch or <code>0</code> if no
+     *         sync was skipped.
+     */
+    public long getSkipTime(Account account) {
+        return preferences.getLong(account.name + SKIPPED, 0);
+    }
+
+}
@@ -0,0 +1,172 @@
+/**
+ * Copyright (C) 2013 Anton Grytsenko (anthony.grytsenko@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grytsenko.coworkers.sync;
+
+import static java.lang.String.format;
+import grytsenko.coworkers.data.Contact;
+import grytsenko.coworkers.web.Employee;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Plan of reconcile between directory and contacts. Plan is immutable and it
+ * is applied by {@link SyncExecutor}.
+ */
+final class SyncPlan {
+
+    /**
+     * The number of operations to create contact: raw contact, its data and
+     * membership in group.
+     */
+    private static final int CREATE_COST = Employee.DATA_KINDS.length + 3;
+
+    /**
+     * Update of existing contact.
+     */
+    public static final class Update {
+
+        private final Contact contact;
+        private final Employee employee;
+        private final List<String> kinds;
+
+        Update(Contact contact, Employee employee, List<String> kinds) {
+            this.contact = contact;
+            this.employee = employee;
+            this.kinds = Collections.unmodifiableList(kinds);
+        }
+
+        /**
+         * Returns the contact to update.
+         */
+        public Contact getContact() {
+            return contact;
+        }
+
+        /**
+         * Returns the data about employee.
+         */
+        public Employee getEmployee() {
+            return employee;
+        }
+
+        /**
+         * Returns the types of data, that were changed.
+         */
+        public List<String> getKinds() {
+            return kinds;
+        }
+
+    }
+
+    private final List<Employee> creates;
+    private final List<Update> updates;
+    private final List<Contact> removes;
+    private final List<String> photos;
+    private final int numContacts;
+
+    SyncPlan(List<Employee> creates, List<Update> updates,
+            List<Contact> removes, List<String> photos, int numContacts) {
+        this.creates = Collections.unmodifiableList(creates);
+        this.updates = Collections.unmodifiableList(updates);
+        this.removes = Collections.unmodifiableList(removes);
+        this.photos = Collections.unmodifiableList(photos);
+        this.numContacts = numContacts;
+    }
+
+    /**
+     * Returns the same plan, that removes other contacts.
+     * 
+     * @param removes
+     *            the contacts, that should be removed.
+     * 
+     * @return the new plan.
+     */
+    public SyncPlan withRemoves(List<Contact> removes) {
+        return new SyncPlan(creates, updates, removes, photos, numContacts);
+    }
+
+    /**
+     * Returns employees, for which contacts should be created.
+     */
+    public List<Employee> getCreates() {
+        return creates;
+    }
+
+    /**
+     * Returns contacts, that should be updated.
+     */
+    public List<Update> getUpdates() {
+        return updates;
+    }
+
+    /**
+     * Returns contacts, that should be removed.
+     */
+    public List<Contact> getRemoves() {
+        return removes;
+    }
+
+    /**
+     * Returns unique identifiers of employees, which photos should be
+     * downloaded.
+     */
+    public List<String> getPhotos() {
+        return photos;
+    }
+
+    /**
+     * Returns the number of contacts, that existed before plan.
+     */
+    public int getNumContacts() {
+        return numContacts;
+    }
+
+    /**
+     * Checks that plan does not change contacts.
+     */
+    public boolean isEmpty() {
+        return creates.isEmpty() && updates.isEmpty() && removes.isEmpty();
+    }
+
+    /**
+     * Estimates the number of operations, that are sent to contacts provider.
+     */
+    public int estimateOperations() {
+        int numOperations = creates.size() * CREATE_COST + removes.size();
+        for (Update update : updates) {
+            numOperations += update.kinds.size();
+        }
+        return numOperations;
+    }
+
+    /**
+     * Estimates the number of batches, that are sent to contacts provider.
+     * Each contact is changed by single batch.
+     */
+    public int estimateBatches() {
+        return creates.size() + updates.size() + removes.size();
+    }
+
+    @Override
+    public String toString() {
+        return format("%d to create, %d to update, %d to remove, "
+                + "%d photos to download; %d operations in %d batches",
+                creates.size(), updates.size(), removes.size(), photos.size(),
+                estimateOperations(), estimateBatches());
+    }
+
+}
@@ -0,0 +1,314 @@
+/**
+ * Copyright (C) 2013 Anton Grytsenko (anthony.grytsenko@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grytsenko.coworkers.sync;
+
+import grytsenko.coworkers.data.Contact;
+import grytsenko.coworkers.data.ContactPhoto;
+import grytsenko.coworkers.data.Fingerprint;
+import grytsenko.coworkers.sync.SyncPlan.Update;
+import grytsenko.coworkers.web.Employee;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import android.content.ContentValues;
+import android.provider.ContactsContract.CommonDataKinds.Photo;
+
+/**
+ * Compares directory with contacts and plans changes of contacts.
+ * 
+ * <p>
+ * Planner does not access contacts provider, so plan can be checked before it
+ * is applied. Contact is updated only if its data differs from data of
+ * employee, and only changed types of data are written. Planner reuses
+ * buffers, so it is not thread-safe.
+ */
+final class SyncPlanner {
+
+    /**
+     * Receives contacts, that are up to date, while plan is made.
+     */
+    interface UnchangedHandler {
+
+        /**
+         * Handles contact, that matches its employee.
+         * 
+         * @param contact
+         *            the existing contact.
+         * @param employee
+         *            the data about employee.
+         */
+        void keep(Contact contact, Employee employee);
+
+    }
+
+    private static final Comparator<Employee> BY_UID = new Comparator<Employee>() {
+
+        @Override
+        public int compare(Employee first, Employee second) {
+            return Contact.UID_ORDER.compare(first.getUid(), second.getUid());
+        }
+
+    };
+
+    private final boolean preferNativeName;
+    private final boolean comparePhotos;
+
+    /**
+     * The set of values, that is reused to compare data of employees.
+     */
+    private final ContentValues values = new ContentValues();
+
+    /**
+     * Creates planner.
+     * 
+     * @param preferNativeName
+     *            indicates that name in native language is preferred.
+     * @param comparePhotos
+     *            indicates that directory contains photos, so they are
+     *            compared. Otherwise photos of contacts are kept as is.
+     */
+    public SyncPlanner(boolean preferNativeName, boolean comparePhotos) {
+        this.preferNativeName = preferNativeName;
+        this.comparePhotos = comparePhotos;
+    }
+
+    /**
+     * Plans reconcile of contacts with directory.
+     * 
+     * <p>
+     * Copy of employees is sorted and then it is merged with contacts in one
+     * pass, so plan keeps only changed contacts and memory does not depend on
+     * the number of contacts.
+     * 
+     * @param employees
+     *            the employees in any order, that is kept as is.
+     * @param contacts
+     *            the existing contacts in {@link Contact#UID_ORDER}.
+     * @param handler
+     *            the handler for contacts, that are up to date, or
+     *            <code>null</code> if they are not needed.
+     * 
+     * @return the plan.
+     */
+    public SyncPlan plan(List<Employee> employees, Iterator<Contact> contacts,
+            UnchangedHandler handler) {
+        List<Employee> sorted = new ArrayList<Employee>(employees);
+        Collections.sort(sorted, BY_UID);
+
+        List<Employee> creates = new ArrayList<Employee>();
+        List<Update> updates = new ArrayList<Update>();
+        List<Contact> removes = new ArrayList<Contact>();
+        List<String> photos = new ArrayList<String>();
+        int numContacts = 0;
+
+        Iterator<Employee> iterator = sorted.iterator();
+        Employee employee = nextEmployee(iterator, null);
+        Contact contact = nextContact(contacts, null);
+
+        while (employee != null || contact != null) {
+            int order;
+            if (employee == null) {
+                order = 1;
+            } else if (contact == null) {
+                order = -1;
+            } else {
+                order = Contact.UID_ORDER.compare(employee.getUid(),
+                        contact.getUid());
+            }
+
+            if (order < 0) {
+                creates.add(employee);
+                if (needsPhoto(null, employee)) {
+                    photos.add(employee.getUid());
+                }
+                employee = nextEmployee(iterator, employee);
+            } else if (order > 0) {
+                removes.add(new Contact(contact.getUid(), contact.getId()));
+                contact = nextContact(contacts, contact);
+                ++numContacts;
+            } else {
+                Update update = planUpdate(contact, employee);
+                if (update != null) {
+                    updates.add(update);
+                } else if (handler != null) {
+                    handler.keep(contact, employee);
+                }
+                if (needsPhoto(contact, employee)) {
+                    photos.add(employee.getUid());
+                }
+                employee = nextEmployee(iterator, employee);
+                contact = nextContact(contacts, contact);
+                ++numContacts;
+            }
+        }
+
+        return new SyncPlan(creates, updates, removes, photos, numContacts);
+    }
+
+    /**
+     * Returns the next employee, skipping duplicates of the previous one.
+     */
+    private static Employee nextEmployee(Iterator<Employee> employees,
+            Employee previous) {
+        while (employees.hasNext()) {
+            Employee employee = employees.next();
+            if (previous == null
+                    || !previous.getUid().equals(employee.getUid())) {
+                return employee;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the next contact, skipping duplicates of the previous one.
+     */
+    private static Contact nextContact(Iterator<Contact> contacts,
+            Contact previous) {
+        while (contacts.hasNext()) {
+            Contact contact = contacts.next();
+            if (previous == null
+                    || !previous.getUid().equals(contact.getUid())) {
+                return contact;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Plans update of contact.
+     * 
+     * @param contact
+     *            the existing contact.
+     * @param employee
+     *            the data about employee.
+     * 
+     * @return the update or <code>null</code> if contact is up to date.
+     */
+    public Update planUpdate(Contact contact, Employee employee) {
+        List<String> kinds = new ArrayList<String>();
+
+        for (String mime : Employee.DATA_KINDS) {
+            employee.getContent(mime, preferNativeName, values);
+            if (isChanged(contact, mime, values)) {
+                kinds.add(mime);
+            }
+        }
+
+        ContactPhoto photo = contact.getPhoto();
+        if (comparePhotos
+                && (photo == null || !employee.isPhotoUrl(photo.getUrl()))) {
+            kinds.add(Photo.CONTENT_ITEM_TYPE);
+        }
+
+        return kinds.isEmpty() ? null : new Update(contact, employee, kinds);
+    }
+
+    /**
+     * Computes fingerprints of data of employee.
+     * 
+     * @param employee
+     *            the data about employee.
+     * 
+     * @return the fingerprints by type of data.
+     */
+    public Map<String, String> fingerprint(Employee employee) {
+        Map<String, String> fingerprints = new HashMap<String, String>();
+        for (String mime : Employee.DATA_KINDS) {
+            employee.getContent(mime, preferNativeName, values);
+            fingerprints.put(mime, Fingerprint.of(values));
+        }
+        return fingerprints;
+    }
+
+    /**
+     * Plans removal of obsolete contacts.
+     * 
+     * @param uids
+     *            the identifiers of all employees in directory.
+     * @param contacts
+     *            the existing contacts by unique identifier of employee.
+     * 
+     * @return the contacts to remove.
+     */
+    public List<Contact> planRemoves(Set<String> uids,
+            Map<String, Contact> contacts) {
+        List<Contact> removes = new ArrayList<Contact>();
+        for (Contact contact : contacts.values()) {
+            if (!uids.contains(contact.getUid())) {
+                removes.add(contact);
+            }
+        }
+        return removes;
+    }
+
+    /**
+     * Checks that photo of employee should be downloaded.
+     */
+    private boolean needsPhoto(Contact contact, Employee employee) {
+        if (!comparePhotos || !employee.hasPhoto()) {
+            return false;
+        }
+
+        ContactPhoto photo = contact != null ? contact.getPhoto() : null;
+        return photo == null || !photo.isSynced()
+                || !employee.isPhotoUrl(photo.getUrl());
+    }
+
+    /**
+     * Checks that data of contact differs from new data. Fingerprint of data,
+     * that was written by sync, is preferred over data, that was read.
+     */
+    private static boolean isChanged(Contact contact, String mime,
+            ContentValues values) {
+        String fingerprint = contact.getFingerprint(mime);
+        if (fingerprint != null) {
+            return !fingerprint.equals(Fingerprint.of(values));
+        }
+        return isChanged(contact.getData(mime), values);
+    }
+
+    /**
+     * Checks that stored data differs from new data.
+     */
+    private static boolean isChanged(ContentValues stored, ContentValues values) {
+        if (stored == null) {
+            return true;
+        }
+
+        for (Entry<String, Object> entry : values.valueSet()) {
+            Object value = entry.getValue();
+            String expected = value != null ? value.toString() : null;
+            if (!equals(expected, stored.getAsString(entry.getKey()))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean equals(String first, String second) {
+        return first == null ? second == null : first.equals(second);
+    }
+
+}
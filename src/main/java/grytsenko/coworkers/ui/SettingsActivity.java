@@ -16,9 +16,24 @@
 package grytsenko.coworkers.ui;
 
 import grytsenko.coworkers.R;
+import grytsenko.coworkers.sync.SyncGuard;
+import grytsenko.coworkers.sync.SyncGuard.SkipReason;
+import grytsenko.coworkers.util.AdaptiveFrequency;
+import grytsenko.coworkers.util.DataUsage;
+import grytsenko.coworkers.util.GeneralSettings;
+import grytsenko.coworkers.util.NetworkConnectivity;
+import grytsenko.coworkers.util.SyncPhase;
+import grytsenko.coworkers.util.SyncScheduler;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+import android.accounts.Account;
+import android.accounts.AccountManager;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
 import android.os.Bundle;
+import android.os.Handler;
 import android.preference.EditTextPreference;
 import android.preference.ListPreference;
 import android.preference.Preference;
@@ -26,6 +41,8 @@ import android.preference.Preference.OnPreferenceChangeListener;
 import android.preference.PreferenceActivity;
 import android.preference.PreferenceManager;
 import android.text.TextUtils;
+import android.text.format.DateUtils;
+import android.text.format.Formatter;
 
 /**
  * Provides access to settings.
@@ -36,6 +53,23 @@ import android.text.TextUtils;
 public class SettingsActivity extends PreferenceActivity implements
         OnSharedPreferenceChangeListener {
 
+    /**
+     * The delay in milliseconds before phase is requested, so repeated
+     * changes of setting request phase once.
+     */
+    private static final long DEBOUNCE_DELAY = 2000;
+
+    private Handler handler = new Handler();
+    private Set<SyncPhase> pendingPhases = EnumSet.noneOf(SyncPhase.class);
+    private Runnable requestPhases = new Runnable() {
+
+        @Override
+        public void run() {
+            requestPhases();
+        }
+
+    };
+
     @SuppressWarnings("deprecation")
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -57,16 +91,157 @@ public class SettingsActivity extends PreferenceActivity implements
 
         setValueAsSummary(getString(R.string.group_title));
         setValueAsSummary(getString(R.string.sync_frequency));
+        setValueAsSummary(getString(R.string.sub_groups));
         setValueAsSummary(getString(R.string.sync_photos));
+        setValueAsSummary(getString(R.string.data_budget));
+        setValueAsSummary(getString(R.string.removal_delay));
 
         PreferenceManager.getDefaultSharedPreferences(this)
                 .registerOnSharedPreferenceChangeListener(this);
     }
 
+    @Override
+    protected void onResume() {
+        super.onResume();
+
+        showDataUsage();
+        showSkippedSync();
+        showFrequencyDecision();
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+
+        if (!pendingPhases.isEmpty()) {
+            requestPhases();
+        }
+    }
+
     @Override
     public void onSharedPreferenceChanged(SharedPreferences sharedPreferences,
             String key) {
         setValueAsSummary(key);
+
+        if (TextUtils.equals(key, getString(R.string.group_title))) {
+            renameGroup();
+        } else if (TextUtils.equals(key, getString(R.string.native_names))) {
+            // Native names are downloaded only if they are preferred.
+            boolean preferNative = new GeneralSettings(this)
+                    .preferNativeNames();
+            postPhase(preferNative ? SyncPhase.DIRECTORY : SyncPhase.NAMES);
+        } else if (TextUtils.equals(key, getString(R.string.sync_photos))
+                && new GeneralSettings(this).syncPhotosEnabled()) {
+            // Photos are downloaded after directory, that contains them.
+            postPhase(SyncPhase.DIRECTORY);
+        }
+    }
+
+    /**
+     * Requests sync of group, so new title is shown without waiting for the
+     * next sync of contacts.
+     */
+    private void renameGroup() {
+        for (Account account : getAccounts()) {
+            SyncScheduler.requestGroupSync(account);
+        }
+    }
+
+    /**
+     * Requests phase of sync, that applies changed setting, after delay.
+     */
+    private void postPhase(SyncPhase phase) {
+        pendingPhases.add(phase);
+        handler.removeCallbacks(requestPhases);
+        handler.postDelayed(requestPhases, DEBOUNCE_DELAY);
+    }
+
+    private void requestPhases() {
+        handler.removeCallbacks(requestPhases);
+        for (Account account : getAccounts()) {
+            for (SyncPhase phase : pendingPhases) {
+                SyncScheduler.requestPhase(account, phase);
+            }
+        }
+        pendingPhases.clear();
+    }
+
+    private Account[] getAccounts() {
+        AccountManager manager = AccountManager.get(this);
+        return manager.getAccountsByType(getString(R.string.account_type));
+    }
+
+    /**
+     * Shows the traffic, that was used by sync.
+     */
+    private void showDataUsage() {
+        DataUsage usage = new DataUsage(this);
+        String wifi = formatUsage(usage, NetworkConnectivity.WIFI);
+        String mobile = formatUsage(usage, NetworkConnectivity.MOBILE);
+
+        @SuppressWarnings("deprecation")
+        Preference preference = findPreference(getString(R.string.data_usage));
+        preference.setSummary(getString(R.string.data_usage_summary, wifi,
+                mobile));
+    }
+
+    private String formatUsage(DataUsage usage, String networkType) {
+        long bytes = usage.getBytesIn(networkType)
+                + usage.getBytesOut(networkType);
+        return Formatter.formatShortFileSize(this, bytes);
+    }
+
+    /**
+     * Shows why and when the last sync was skipped.
+     */
+    private void showSkippedSync() {
+        SyncGuard guard = new SyncGuard(this);
+        String summary = getString(R.string.skipped_sync_none);
+        for (Account account : getAccounts()) {
+            SkipReason reason = guard.getSkipReason(account);
+            if (reason == null) {
+                continue;
+            }
+
+            int reasonId = R.string.skip_reason_fresh;
+            if (reason == SkipReason.RUNNING) {
+                reasonId = R.string.skip_reason_running;
+            }
+            String time = formatTime(guard.getSkipTime(account));
+            summary = getString(R.string.skipped_sync_summary,
+                    getString(reasonId), time);
+        }
+
+        @SuppressWarnings("deprecation")
+        Preference preference = findPreference(getString(R.string.skipped_sync));
+        preference.setSummary(summary);
+    }
+
+    /**
+     * Shows when and why adaptive frequency chose the last interval.
+     */
+    private void showFrequencyDecision() {
+        AdaptiveFrequency frequency = new AdaptiveFrequency(this);
+        String summary = getString(R.string.frequency_decision_none);
+        for (Account account : getAccounts()) {
+            String decision = frequency.lastDecision(account);
+            if (decision == null) {
+                continue;
+            }
+
+            String time = formatTime(frequency.lastDecisionTime(account));
+            summary = getString(R.string.frequency_decision_summary, time,
+                    decision);
+        }
+
+        @SuppressWarnings("deprecation")
+        Preference preference = findPreference(getString(R.string.frequency_decision));
+        preference.setSummary(summary);
+    }
+
+    private String formatTime(long time) {
+        return DateUtils.formatDateTime(this, time,
+                DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_SHOW_TIME);
     }
 
     /**
@@ -16,6 +16,14 @@
 package grytsenko.coworkers.ui;
 
 import grytsenko.coworkers.R;
+import grytsenko.coworkers.data.SyncStateStore;
+import grytsenko.coworkers.sync.DirectoryHandoff;
+import grytsenko.coworkers.sync.SyncGuard;
+import grytsenko.coworkers.util.GeneralSettings;
+import grytsenko.coworkers.web.Directory;
+import grytsenko.coworkers.web.DirectoryCache;
+import grytsenko.coworkers.web.Employee;
+import grytsenko.coworkers.web.Mirrors;
 import grytsenko.coworkers.web.WebClient;
 import grytsenko.coworkers.web.WebException;
 import android.accounts.Account;
@@ -131,7 +139,19 @@ public class SignInActivity extends AccountAuthenticatorActivity {
         Log.d(TAG, "Sign in started.");
     }
 
-    public void onSignInCompleted(Boolean succeeded) {
+    /**
+     * Completes sign in.
+     * 
+     * @param succeeded
+     *            indicates that credentials are valid.
+     * @param fields
+     *            the projection of directory.
+     * @param directory
+     *            the directory, that was downloaded to check credentials, or
+     *            <code>null</code> if it was not downloaded.
+     */
+    public void onSignInCompleted(Boolean succeeded, String fields,
+            Directory directory) {
         signInDialog.dismiss();
 
         if (!succeeded) {
@@ -139,7 +159,7 @@ public class SignInActivity extends AccountAuthenticatorActivity {
             return;
         }
 
-        createAccount();
+        createAccount(fields, directory);
 
         username = null;
         password = null;
@@ -148,7 +168,7 @@ public class SignInActivity extends AccountAuthenticatorActivity {
         finish();
     }
 
-    private void createAccount() {
+    private void createAccount(String fields, Directory directory) {
         Log.d(TAG, "Create account.");
 
         AccountManager manager = AccountManager.get(this);
@@ -161,6 +181,14 @@ public class SignInActivity extends AccountAuthenticatorActivity {
             return;
         }
 
+        // State may be left by removed account with the same name.
+        new SyncStateStore(this).removeAccount(account);
+        new DirectoryCache(this).remove(account);
+        new SyncGuard(this).reset(account);
+
+        if (directory != null) {
+            DirectoryHandoff.offer(account, fields, directory);
+        }
         startSync(account);
 
         Bundle bundle = new Bundle();
@@ -180,14 +208,35 @@ public class SignInActivity extends AccountAuthenticatorActivity {
         Log.d(TAG, "Sign in cancelled.");
     }
 
+    /**
+     * Checks credentials. If service can not check them separately, then
+     * directory is downloaded and it is passed to the first sync.
+     */
     private class SignInTask extends AsyncTask<Void, Void, Boolean> {
 
+        private Mirrors mirrors;
+        private String fields;
+        private Directory directory;
+
+        @Override
+        protected void onPreExecute() {
+            mirrors = new Mirrors(SignInActivity.this, getResources()
+                    .getStringArray(R.array.rest_mirrors));
+
+            GeneralSettings settings = new GeneralSettings(SignInActivity.this);
+            fields = Employee.projection(settings.preferNativeNames(),
+                    settings.syncPhotosEnabled());
+        }
+
         @Override
         protected Boolean doInBackground(Void... args) {
             try {
                 WebClient webClient = new WebClient();
-                String serviceUrl = getString(R.string.rest_coworkers);
-                webClient.getEmployees(serviceUrl, username, password);
+                if (!webClient.checkCredentials(mirrors, fields, username,
+                        password)) {
+                    directory = webClient.getDirectory(mirrors, fields,
+                            username, password);
+                }
                 return true;
             } catch (WebException exception) {
                 Log.d(TAG, "Sign in failed.", exception);
@@ -198,7 +247,7 @@ public class SignInActivity extends AccountAuthenticatorActivity {
 
         @Override
         protected void onPostExecute(Boolean authenticated) {
-            onSignInCompleted(authenticated);
+            onSignInCompleted(authenticated, fields, directory);
         }
 
         @Override
@@ -0,0 +1,162 @@
+/**
+ * Copyright (C) 2013 Anton Grytsenko (anthony.grytsenko@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grytsenko.coworkers.util;
+
+import static java.lang.String.format;
+import android.accounts.Account;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.text.TextUtils;
+import android.util.Log;
+
+/**
+ * Chooses interval between syncs depending on how often directory changes.
+ * 
+ * <p>
+ * Interval is doubled while directory is not changed and halved while many
+ * employees join or leave company. Interval is never shorter than freshness
+ * period, that was sent by server. Each decision is stored, so it can be
+ * checked later.
+ */
+public class AdaptiveFrequency {
+
+    private static final String TAG = AdaptiveFrequency.class.getName();
+
+    private static final String PREFERENCES = "adaptive_frequency";
+
+    private static final String INTERVAL = ".interval";
+    private static final String VERSION = ".version";
+    private static final String DECISION = ".decision";
+    private static final String DECIDED_AT = ".decided_at";
+
+    /**
+     * The shortest interval in seconds (1 day).
+     */
+    public static final long MIN_INTERVAL = 24 * 60 * 60;
+
+    /**
+     * The longest interval in seconds (30 days).
+     */
+    public static final long MAX_INTERVAL = 30 * MIN_INTERVAL;
+
+    /**
+     * The interval in seconds, that is used before the first decision (7
+     * days).
+     */
+    public static final long INITIAL_INTERVAL = 7 * MIN_INTERVAL;
+
+    /**
+     * The share of changed contacts, that means high churn.
+     */
+    public static final double CHURN_RATIO = 0.02;
+
+    private SharedPreferences preferences;
+
+    /**
+     * Creates helper.
+     * 
+     * @param context
+     *            the context to use.
+     */
+    public AdaptiveFrequency(Context context) {
+        preferences = context.getSharedPreferences(PREFERENCES,
+                Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Chooses interval until next sync and records decision.
+     * 
+     * @param account
+     *            the account.
+     * @param version
+     *            the version of directory, that was synced.
+     * @param numChanges
+     *            the number of contacts, that were created, updated or
+     *            removed.
+     * @param numEntries
+     *            the number of employees in directory.
+     * @param maxAge
+     *            the number of seconds during which directory remains fresh
+     *            or <code>0</code> if unknown.
+     * 
+     * @return the interval in seconds.
+     */
+    public long nextInterval(Account account, String version, int numChanges,
+            int numEntries, long maxAge) {
+        String key = account.name;
+
+        long interval = preferences.getLong(key + INTERVAL, INITIAL_INTERVAL);
+        String previousVersion = preferences.getString(key + VERSION, null);
+
+        String reason;
+        if (previousVersion == null) {
+            reason = "first sync";
+        } else if (TextUtils.equals(previousVersion, version)) {
+            interval *= 2;
+            reason = "directory not changed";
+        } else if (numChanges >= Math.max(1, numEntries * CHURN_RATIO)) {
+            interval /= 2;
+            reason = format("%d of %d contacts changed", numChanges,
+                    numEntries);
+        } else {
+            reason = "directory changed slightly";
+        }
+
+        if (interval < maxAge) {
+            interval = maxAge;
+            reason += ", fresh for " + maxAge + "s";
+        }
+        interval = Math.max(MIN_INTERVAL, Math.min(interval, MAX_INTERVAL));
+
+        String decision = format("Interval %ds (bounds %d-%ds): %s.",
+                interval, MIN_INTERVAL, MAX_INTERVAL, reason);
+        Log.i(TAG, decision);
+
+        preferences.edit().putLong(key + INTERVAL, interval)
+                .putString(key + VERSION, version)
+                .putString(key + DECISION, decision)
+                .putLong(key + DECIDED_AT, System.currentTimeMillis()).commit();
+
+        return interval;
+    }
+
+    /**
+     * Returns the last decision.
+     * 
+     * @param account
+     *            the account.
+     * 
+     * @return the description of decision or <code>null</code> if there was
+     *         no decision yet.
+     */
+    public String lastDecision(Account account) {
+        return preferences.getString(account.name + DECISION, null);
+    }
+
+    /**
+     * Returns the time of last decision.
+     * 
+     * @param account
+     *            the account.
+     * 
+     * @return the time in milliseconds or <code>0</code> if there was no
+     *         decision yet.
+     */
+    public long lastDecisionTime(Account account) {
+        return preferences.getLong(account.name + DECIDED_AT, 0);
+    }
+
+}
@@ -0,0 +1,157 @@
+/**
+ * Copyright (C) 2013 Anton Grytsenko (anthony.grytsenko@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grytsenko.coworkers.util;
+
+import static java.lang.String.format;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.util.Log;
+
+/**
+ * Tracks network connectivity while sync runs. State of network is updated
+ * when system broadcasts change of connectivity, so long phases check plain
+ * fields instead of querying system for each step.
+ */
+public class ConnectivityMonitor extends BroadcastReceiver {
+
+    private static final String TAG = ConnectivityMonitor.class.getName();
+
+    /**
+     * Receives changes of network.
+     */
+    public interface Listener {
+
+        /**
+         * Handles change of network.
+         * 
+         * @param networkType
+         *            the type of current network, see
+         *            {@link NetworkConnectivity#getNetworkType()}.
+         * @param limited
+         *            indicates that traffic should be limited, see
+         *            {@link ConnectivityMonitor#isLimited()}.
+         */
+        void onNetworkChanged(String networkType, boolean limited);
+
+    }
+
+    private Context context;
+    private NetworkConnectivity connectivity;
+    private Listener listener;
+
+    private volatile boolean connected;
+    private volatile boolean unmetered;
+    private volatile boolean roaming;
+
+    /**
+     * Creates monitor.
+     * 
+     * @param context
+     *            the context to use.
+     * @param listener
+     *            the listener for changes of network.
+     */
+    public ConnectivityMonitor(Context context, Listener listener) {
+        this.context = context.getApplicationContext();
+        this.listener = listener;
+        connectivity = new NetworkConnectivity(context);
+    }
+
+    /**
+     * Reads the current state of network and starts to track its changes.
+     */
+    public void start() {
+        update();
+        context.registerReceiver(this, new IntentFilter(
+                ConnectivityManager.CONNECTIVITY_ACTION));
+    }
+
+    /**
+     * Stops to track changes of network.
+     */
+    public void stop() {
+        try {
+            context.unregisterReceiver(this);
+        } catch (IllegalArgumentException exception) {
+            Log.d(TAG, "Monitor not started.");
+        }
+    }
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        update();
+        Log.d(TAG, format(
+                "Network changed, connected %b, unmetered %b, roaming %b.",
+                connected, unmetered, roaming));
+
+        listener.onNetworkChanged(getNetworkType(), isLimited());
+    }
+
+    /**
+     * Checks that network is suitable.
+     * 
+     * @param unmeteredOnly
+     *            if only unmetered network is suitable.
+     * 
+     * @return <code>true</code> if network is suitable and
+     *         <code>false</code> otherwise.
+     */
+    public boolean isSuitable(boolean unmeteredOnly) {
+        return unmeteredOnly ? unmetered : connected;
+    }
+
+    /**
+     * Checks that device is roaming.
+     * 
+     * @return <code>true</code> if device is roaming and <code>false</code>
+     *         otherwise.
+     */
+    public boolean isRoaming() {
+        return roaming;
+    }
+
+    /**
+     * Checks that traffic should be limited, because network is metered or
+     * device is roaming.
+     * 
+     * @return <code>true</code> if traffic should be limited and
+     *         <code>false</code> otherwise.
+     */
+    public boolean isLimited() {
+        return !unmetered || roaming;
+    }
+
+    /**
+     * Returns the type of current network.
+     * 
+     * @return {@link NetworkConnectivity#WIFI} or
+     *         {@link NetworkConnectivity#MOBILE}.
+     */
+    public String getNetworkType() {
+        return unmetered ? NetworkConnectivity.WIFI
+                : NetworkConnectivity.MOBILE;
+    }
+
+    private void update() {
+        connected = connectivity.isSuitable(false);
+        unmetered = connectivity.isUnmetered();
+        roaming = connectivity.isRoaming();
+    }
+
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright (C) 2013 Anton Grytsenko (anthony.grytsenko@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grytsenko.coworkers.util;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Accumulates traffic, that was used by sync.
+ */
+public class DataUsage {
+
+    private static final String PREFERENCES = "data_usage";
+
+    private static final String BYTES_IN = ".in";
+    private static final String BYTES_OUT = ".out";
+
+    private SharedPreferences preferences;
+
+    /**
+     * Creates helper.
+     * 
+     * @param context
+     *            the context to use.
+     */
+    public DataUsage(Context context) {
+        preferences = context.getSharedPreferences(PREFERENCES,
+                Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Adds traffic of sync.
+     * 
+     * @param networkType
+     *            the type of network.
+     * @param bytesIn
+     *            the number of received bytes.
+     * @param bytesOut
+     *            the number of sent bytes.
+     */
+    public void add(String networkType, long bytesIn, long bytesOut) {
+        preferences
+                .edit()
+                .putLong(networkType + BYTES_IN,
+                        getBytesIn(networkType) + bytesIn)
+                .putLong(networkType + BYTES_OUT,
+                        getBytesOut(networkType) + bytesOut).commit();
+    }
+
+    /**
+     * Returns the number of received bytes.
+     * 
+     * @param networkType
+     *            the type of network.
+     */
+    public long getBytesIn(String networkType) {
+        return preferences.getLong(networkType + BYTES_IN, 0);
+    }
+
+    /**
+     * Returns the number of sent bytes.
+     * 
+     * @param networkType
+     *            the type of network.
+     */
+    public long getBytesOut(String networkType) {
+        return preferences.getLong(networkType + BYTES_OUT, 0);
+    }
+
+}
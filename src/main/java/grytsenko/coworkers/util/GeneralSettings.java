@@ -60,6 +60,27 @@ public class GeneralSettings {
                 context.getString(R.string.group_title_default));
     }
 
+    /**
+     * Returns the field, by which contacts are grouped into teams.
+     * 
+     * @return the field of directory.
+     */
+    public SubGroups subGroups() {
+        String value = preferences.getString(
+                context.getString(R.string.sub_groups),
+                context.getString(R.string.sub_groups_none));
+
+        if (TextUtils.equals(value,
+                context.getString(R.string.sub_groups_department))) {
+            return SubGroups.DEPARTMENT;
+        } else if (TextUtils.equals(value,
+                context.getString(R.string.sub_groups_office))) {
+            return SubGroups.OFFICE;
+        } else {
+            return SubGroups.NONE;
+        }
+    }
+
     /**
      * Checks that sync of photos is enabled.
      * 
@@ -92,6 +113,33 @@ public class GeneralSettings {
                 context.getString(R.string.sync_photos_none));
     }
 
+    /**
+     * Returns the number of bytes, that may be received during sync over
+     * metered network or while roaming.
+     * 
+     * @return the number of bytes or <code>0</code> if traffic is not limited.
+     */
+    public long dataBudget() {
+        String value = preferences.getString(
+                context.getString(R.string.data_budget),
+                context.getString(R.string.data_budget_default));
+        return Long.parseLong(value);
+    }
+
+    /**
+     * Returns the period during which contact is kept after employee was
+     * removed from directory.
+     * 
+     * @return the number of seconds or <code>0</code> if contact is removed
+     *         at once.
+     */
+    public long removalDelay() {
+        String value = preferences.getString(
+                context.getString(R.string.removal_delay),
+                context.getString(R.string.removal_delay_default));
+        return Long.parseLong(value);
+    }
+
     /**
      * Checks that user prefers names in their native language.
      * 
@@ -111,6 +159,7 @@ public class GeneralSettings {
     public SyncFrequency syncFrequency() {
         String weekly = context.getString(R.string.sync_frequency_weekly);
         String monthly = context.getString(R.string.sync_frequency_monthly);
+        String adaptive = context.getString(R.string.sync_frequency_adaptive);
 
         String value = preferences.getString(
                 context.getString(R.string.sync_frequency), weekly);
@@ -119,6 +168,8 @@ public class GeneralSettings {
             return SyncFrequency.WEEKLY;
         } else if (TextUtils.equals(value, monthly)) {
             return SyncFrequency.MONTHLY;
+        } else if (TextUtils.equals(value, adaptive)) {
+            return SyncFrequency.ADAPTIVE;
         } else {
             throw new IllegalStateException("Invalid frequency.");
         }
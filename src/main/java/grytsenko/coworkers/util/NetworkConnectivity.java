@@ -15,15 +15,27 @@
  */
 package grytsenko.coworkers.util;
 
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
+import android.os.Build;
 
 /**
  * Helps to check that network connectivity is suitable.
  */
 public class NetworkConnectivity {
 
+    /**
+     * The type of network, that is not charged by traffic.
+     */
+    public static final String WIFI = "wifi";
+
+    /**
+     * The type of network, that may be charged by traffic.
+     */
+    public static final String MOBILE = "mobile";
+
     private ConnectivityManager manager;
 
     /**
@@ -60,4 +72,52 @@ public class NetworkConnectivity {
         return true;
     }
 
+    /**
+     * Checks that we have connection to network, that is not charged by
+     * traffic.
+     * 
+     * @return <code>true</code> if connection is unmetered and
+     *         <code>false</code> otherwise.
+     */
+    public boolean isUnmetered() {
+        NetworkInfo connectivity = manager.getActiveNetworkInfo();
+
+        if (connectivity == null || !connectivity.isConnected()) {
+            return false;
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            return !isActiveNetworkMetered();
+        }
+
+        int type = connectivity.getType();
+        return type == ConnectivityManager.TYPE_WIFI
+                || type == ConnectivityManager.TYPE_ETHERNET;
+    }
+
+    /**
+     * Checks that device is roaming.
+     * 
+     * @return <code>true</code> if device is roaming and <code>false</code>
+     *         otherwise.
+     */
+    public boolean isRoaming() {
+        NetworkInfo connectivity = manager.getActiveNetworkInfo();
+        return connectivity != null && connectivity.isRoaming();
+    }
+
+    /**
+     * Returns the type of current network.
+     * 
+     * @return {@link #WIFI} or {@link #MOBILE}.
+     */
+    public String getNetworkType() {
+        return isUnmetered() ? WIFI : MOBILE;
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private boolean isActiveNetworkMetered() {
+        return manager.isActiveNetworkMetered();
+    }
+
 }
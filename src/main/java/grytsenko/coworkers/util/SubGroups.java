@@ -0,0 +1,39 @@
+/**
+ * Copyright (C) 2013 Anton Grytsenko (anthony.grytsenko@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grytsenko.coworkers.util;
+
+/**
+ * Field of directory, by which contacts are grouped in addition to the main
+ * group.
+ */
+public enum SubGroups {
+
+    /**
+     * Contacts are not grouped.
+     */
+    NONE,
+
+    /**
+     * Contacts are grouped by department.
+     */
+    DEPARTMENT,
+
+    /**
+     * Contacts are grouped by office.
+     */
+    OFFICE
+
+}
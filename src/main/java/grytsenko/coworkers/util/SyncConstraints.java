@@ -0,0 +1,143 @@
+/**
+ * Copyright (C) 2013 Anton Grytsenko (anthony.grytsenko@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grytsenko.coworkers.util;
+
+import static java.lang.String.format;
+import android.accounts.Account;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.os.BatteryManager;
+import android.os.PowerManager;
+import android.util.Log;
+
+/**
+ * Decides when heavy phases of sync may run.
+ * 
+ * <p>
+ * Heavy phases run only if device is charging, it is not used and network is
+ * suitable. If heavy phases were deferred for too long, then only network is
+ * checked, so they will not be starved on devices, that are rarely charged.
+ */
+public class SyncConstraints {
+
+    private static final String TAG = SyncConstraints.class.getName();
+
+    private static final String PREFERENCES = "sync_constraints";
+
+    private static final String DEFERRED_SINCE = ".deferred_since";
+
+    /**
+     * The longest period in milliseconds, during which heavy phases wait for
+     * charging and idle device (3 days).
+     */
+    public static final long MAX_DEFERRAL = 3 * 24 * 60 * 60 * 1000L;
+
+    private Context context;
+    private SharedPreferences preferences;
+
+    private NetworkConnectivity connectivity;
+
+    /**
+     * Creates helper.
+     * 
+     * @param context
+     *            the context to use.
+     */
+    public SyncConstraints(Context context) {
+        this.context = context;
+        preferences = context.getSharedPreferences(PREFERENCES,
+                Context.MODE_PRIVATE);
+
+        connectivity = new NetworkConnectivity(context);
+    }
+
+    /**
+     * Checks that heavy phases may run now.
+     * 
+     * @param account
+     *            the account.
+     * @param unmeteredOnly
+     *            if only unmetered network is suitable.
+     * 
+     * @return <code>true</code> if heavy phases may run and
+     *         <code>false</code> if they should be deferred.
+     */
+    public boolean allowHeavy(Account account, boolean unmeteredOnly) {
+        boolean networkSuitable = unmeteredOnly ? connectivity.isUnmetered()
+                : connectivity.isSuitable(false);
+        if (!networkSuitable) {
+            Log.d(TAG, "Network not suitable.");
+            return false;
+        }
+
+        long deferredSince = preferences.getLong(account.name
+                + DEFERRED_SINCE, 0);
+        long deferral = System.currentTimeMillis() - deferredSince;
+        if (deferredSince != 0 && deferral > MAX_DEFERRAL) {
+            Log.d(TAG, format("Deferred for %d ms, run anyway.", deferral));
+            return true;
+        }
+
+        boolean charging = isCharging();
+        boolean idle = isIdle();
+        Log.d(TAG, format("Charging %b, idle %b.", charging, idle));
+        return charging && idle;
+    }
+
+    /**
+     * Records that heavy phases were deferred.
+     * 
+     * @param account
+     *            the account.
+     */
+    public void defer(Account account) {
+        String key = account.name + DEFERRED_SINCE;
+        if (preferences.getLong(key, 0) == 0) {
+            preferences.edit().putLong(key, System.currentTimeMillis())
+                    .commit();
+        }
+    }
+
+    /**
+     * Records that heavy phases were completed.
+     * 
+     * @param account
+     *            the account.
+     */
+    public void complete(Account account) {
+        preferences.edit().remove(account.name + DEFERRED_SINCE).commit();
+    }
+
+    private boolean isCharging() {
+        IntentFilter filter = new IntentFilter(Intent.ACTION_BATTERY_CHANGED);
+        Intent battery = context.getApplicationContext().registerReceiver(
+                null, filter);
+        if (battery == null) {
+            return false;
+        }
+
+        return battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+    }
+
+    private boolean isIdle() {
+        PowerManager manager = (PowerManager) context
+                .getSystemService(Context.POWER_SERVICE);
+        return !manager.isScreenOn();
+    }
+
+}
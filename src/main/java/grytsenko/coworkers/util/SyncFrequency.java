@@ -28,6 +28,13 @@ public enum SyncFrequency {
     /**
      * Once a month.
      */
-    MONTHLY
+    MONTHLY,
+
+    /**
+     * Depends on how often directory changes.
+     * 
+     * @see AdaptiveFrequency
+     */
+    ADAPTIVE
 
 }
@@ -0,0 +1,42 @@
+/**
+ * Copyright (C) 2013 Anton Grytsenko (anthony.grytsenko@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grytsenko.coworkers.util;
+
+/**
+ * Phase of sync.
+ */
+public enum SyncPhase {
+
+    /**
+     * Sync of group and contacts. It is cheap, so it runs whenever sync is
+     * started.
+     */
+    DIRECTORY,
+
+    /**
+     * Sync of photos. It is heavy, so it runs only if device is ready for it.
+     * 
+     * @see SyncConstraints
+     */
+    PHOTOS,
+
+    /**
+     * Rewrite of names after preferred language of names was changed. It
+     * uses cached directory, so it does not download directory.
+     */
+    NAMES
+
+}
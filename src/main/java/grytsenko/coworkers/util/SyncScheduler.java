@@ -33,6 +33,16 @@ public final class SyncScheduler {
 
     private static final String TAG = SyncScheduler.class.getName();
 
+    private static final String PHASE = "grytsenko.coworkers.PHASE";
+    private static final String DRY_RUN = "grytsenko.coworkers.DRY_RUN";
+    private static final String GROUP_ONLY = "grytsenko.coworkers.GROUP_ONLY";
+
+    /**
+     * The interval in seconds between attempts to run deferred phases (1
+     * hour).
+     */
+    private static final long DEFERRED_INTERVAL = 60 * 60;
+
     /**
      * Performs scheduling of next sync.
      * 
@@ -52,6 +62,159 @@ public final class SyncScheduler {
         Log.d(TAG, format("Sync scheduled for %tF %<tT", next));
     }
 
+    /**
+     * Performs scheduling of next sync after the specified interval.
+     * 
+     * @param account
+     *            the account.
+     * @param interval
+     *            the interval in seconds.
+     */
+    public static void scheduleNext(Account account, long interval) {
+        Date next = new Date(System.currentTimeMillis() + interval * 1000);
+
+        ContentResolver.addPeriodicSync(account, ContactsContract.AUTHORITY,
+                new Bundle(), interval);
+
+        Log.d(TAG, format("Sync scheduled for %tF %<tT", next));
+    }
+
+    /**
+     * Schedules attempts to run deferred phase, until it is completed.
+     * 
+     * @param account
+     *            the account.
+     * @param phase
+     *            the deferred phase.
+     */
+    public static void scheduleDeferred(Account account, SyncPhase phase) {
+        ContentResolver.addPeriodicSync(account, ContactsContract.AUTHORITY,
+                toExtras(phase), DEFERRED_INTERVAL);
+
+        Log.d(TAG, format("Phase %s deferred.", phase));
+    }
+
+    /**
+     * Cancels attempts to run deferred phase.
+     * 
+     * @param account
+     *            the account.
+     * @param phase
+     *            the completed phase.
+     */
+    public static void cancelDeferred(Account account, SyncPhase phase) {
+        ContentResolver.removePeriodicSync(account, ContactsContract.AUTHORITY,
+                toExtras(phase));
+    }
+
+    /**
+     * Returns the phase of sync, that was requested.
+     * 
+     * @param extras
+     *            the parameters of sync.
+     * 
+     * @return the requested phase or {@link SyncPhase#DIRECTORY} if sync was
+     *         started as usual.
+     */
+    public static SyncPhase getPhase(Bundle extras) {
+        String phase = extras.getString(PHASE);
+        return phase != null ? SyncPhase.valueOf(phase) : SyncPhase.DIRECTORY;
+    }
+
+    /**
+     * Checks that regular sync was requested, for example periodic sync or
+     * sync, that was started by user. Such syncs are interchangeable, unlike
+     * syncs of specific phase.
+     * 
+     * @param extras
+     *            the parameters of sync.
+     * 
+     * @return <code>true</code> if sync is regular and <code>false</code>
+     *         otherwise.
+     */
+    public static boolean isRegular(Bundle extras) {
+        return !extras.containsKey(PHASE) && !isDryRun(extras)
+                && !isGroupOnly(extras);
+    }
+
+    /**
+     * Requests sync, that runs only the specified phase.
+     * 
+     * @param account
+     *            the account.
+     * @param phase
+     *            the phase to run.
+     */
+    public static void requestPhase(Account account, SyncPhase phase) {
+        Bundle extras = toExtras(phase);
+        extras.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
+        ContentResolver.requestSync(account, ContactsContract.AUTHORITY,
+                extras);
+
+        Log.d(TAG, format("Phase %s requested.", phase));
+    }
+
+    /**
+     * Requests sync, that only logs planned changes of contacts.
+     * 
+     * @param account
+     *            the account.
+     */
+    public static void requestDryRun(Account account) {
+        Bundle extras = new Bundle();
+        extras.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
+        extras.putBoolean(DRY_RUN, true);
+        ContentResolver.requestSync(account, ContactsContract.AUTHORITY,
+                extras);
+    }
+
+    /**
+     * Checks that dry run of sync was requested.
+     * 
+     * @param extras
+     *            the parameters of sync.
+     * 
+     * @return <code>true</code> if contacts should not be changed and
+     *         <code>false</code> otherwise.
+     */
+    public static boolean isDryRun(Bundle extras) {
+        return extras.getBoolean(DRY_RUN, false);
+    }
+
+    /**
+     * Requests sync, that only updates group, for example after its title
+     * was changed.
+     * 
+     * @param account
+     *            the account.
+     */
+    public static void requestGroupSync(Account account) {
+        Bundle extras = new Bundle();
+        extras.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
+        extras.putBoolean(GROUP_ONLY, true);
+        ContentResolver.requestSync(account, ContactsContract.AUTHORITY,
+                extras);
+    }
+
+    /**
+     * Checks that sync of group only was requested.
+     * 
+     * @param extras
+     *            the parameters of sync.
+     * 
+     * @return <code>true</code> if contacts should not be synced and
+     *         <code>false</code> otherwise.
+     */
+    public static boolean isGroupOnly(Bundle extras) {
+        return extras.getBoolean(GROUP_ONLY, false);
+    }
+
+    private static Bundle toExtras(SyncPhase phase) {
+        Bundle extras = new Bundle();
+        extras.putString(PHASE, phase.name());
+        return extras;
+    }
+
     private static Date getNext(SyncFrequency frequency) {
         switch (frequency) {
         case MONTHLY:
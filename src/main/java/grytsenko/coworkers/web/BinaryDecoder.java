@@ -0,0 +1,127 @@
+/**
+ * Copyright (C) 2013 Anton Grytsenko (anthony.grytsenko@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grytsenko.coworkers.web;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads directory in compact binary format, that is cheaper to parse than
+ * JSON.
+ * 
+ * <p>
+ * Directory is a sequence of records till the end of stream. Each record
+ * starts with its length as 4-byte integer, so record with invalid data is
+ * skipped without losing position in stream. Record consists of fields, each
+ * field is a 1-byte tag, 2-byte length and value in UTF-8.
+ * 
+ * @see Employee#fromBinary(byte[], int, StringPool)
+ */
+final class BinaryDecoder {
+
+    /**
+     * The type of content, that is used for directory in binary format.
+     */
+    public static final String CONTENT_TYPE = "application/x-coworkers";
+
+    private static final int INITIAL_SIZE = 512;
+    private static final int MAX_SIZE = 1024 * 1024;
+
+    /**
+     * Checks that response contains directory in binary format.
+     * 
+     * @param contentType
+     *            the type of content of response (can be <code>null</code>).
+     * 
+     * @return <code>true</code> if directory is in binary format.
+     */
+    public static boolean isBinary(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+
+        int end = contentType.indexOf(';');
+        String type = end < 0 ? contentType : contentType.substring(0, end);
+        return CONTENT_TYPE.equalsIgnoreCase(type.trim());
+    }
+
+    private DataInputStream input;
+    private StringPool pool;
+
+    private byte[] record = new byte[INITIAL_SIZE];
+    private int length;
+
+    /**
+     * Creates a decoder.
+     * 
+     * @param input
+     *            the stream to read.
+     * @param pool
+     *            the pool, that is shared by employees of directory.
+     */
+    public BinaryDecoder(InputStream input, StringPool pool) {
+        this.input = new DataInputStream(input);
+        this.pool = pool;
+    }
+
+    /**
+     * Reads the next record.
+     * 
+     * @return <code>true</code> if record was read or <code>false</code> if
+     *         stream ended.
+     * 
+     * @throws IOException
+     *             if stream could not be read or record has invalid length.
+     */
+    public boolean next() throws IOException {
+        int first = input.read();
+        if (first == -1) {
+            return false;
+        }
+
+        try {
+            length = (first << 24) | (input.readUnsignedByte() << 16)
+                    | input.readUnsignedShort();
+        } catch (EOFException exception) {
+            throw new IOException("Truncated record.");
+        }
+        if (length < 0 || length > MAX_SIZE) {
+            throw new IOException("Invalid length of record.");
+        }
+
+        if (record.length < length) {
+            record = new byte[Math.max(length, record.length * 2)];
+        }
+        input.readFully(record, 0, length);
+        return true;
+    }
+
+    /**
+     * Decodes employee from the last read record.
+     * 
+     * @return the decoded employee.
+     * 
+     * @throws IOException
+     *             if record has invalid format. Position in stream is kept,
+     *             so the next record may be read.
+     */
+    public Employee getEmployee() throws IOException {
+        return Employee.fromBinary(record, length, pool);
+    }
+
+}
@@ -0,0 +1,157 @@
+/**
+ * Copyright (C) 2013 Anton Grytsenko (anthony.grytsenko@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grytsenko.coworkers.web;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Directory of employees, that is provided by REST service.
+ */
+public final class Directory {
+
+    private List<Employee> employees;
+    private int size;
+    private String version;
+    private long maxAge;
+    private int totalCount;
+    private boolean partial;
+
+    /**
+     * Creates a directory.
+     * 
+     * @param employees
+     *            the list of employees.
+     * @param version
+     *            the version of directory.
+     * @param maxAge
+     *            the number of seconds during which directory remains fresh.
+     * @param totalCount
+     *            the number of employees, that was declared by server, or
+     *            <code>-1</code> if unknown.
+     */
+    public Directory(List<Employee> employees, String version, long maxAge,
+            int totalCount) {
+        this(employees, version, maxAge, totalCount, false);
+    }
+
+    /**
+     * Creates a directory, that was merged from several sources.
+     * 
+     * @param employees
+     *            the list of employees.
+     * @param version
+     *            the version of directory.
+     * @param maxAge
+     *            the number of seconds during which directory remains fresh.
+     * @param totalCount
+     *            the number of employees, that was declared by servers, or
+     *            <code>-1</code> if unknown.
+     * @param partial
+     *            indicates that some sources were not received.
+     */
+    public Directory(List<Employee> employees, String version, long maxAge,
+            int totalCount, boolean partial) {
+        this.employees = employees;
+        this.size = employees.size();
+        this.version = version;
+        this.maxAge = maxAge;
+        this.totalCount = totalCount;
+        this.partial = partial;
+    }
+
+    /**
+     * Creates a directory, which employees were already handled while it was
+     * downloaded.
+     * 
+     * @param size
+     *            the number of employees.
+     * @param version
+     *            the version of directory.
+     * @param maxAge
+     *            the number of seconds during which directory remains fresh.
+     * @param totalCount
+     *            the number of employees, that was declared by server, or
+     *            <code>-1</code> if unknown.
+     */
+    public Directory(int size, String version, long maxAge, int totalCount) {
+        this.employees = Collections.emptyList();
+        this.size = size;
+        this.version = version;
+        this.maxAge = maxAge;
+        this.totalCount = totalCount;
+    }
+
+    /**
+     * Returns the list of employees.
+     * 
+     * @return the list of employees, that is empty if employees were handled
+     *         while directory was downloaded.
+     */
+    public List<Employee> getEmployees() {
+        return employees;
+    }
+
+    /**
+     * Returns the number of employees.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the version of directory. Directories with the same version
+     * contain the same data.
+     * 
+     * @return the entity tag, that was sent by server, or digest of data.
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the number of seconds during which directory remains fresh.
+     * 
+     * @return the number of seconds or <code>0</code> if server did not
+     *         provide this hint.
+     */
+    public long getMaxAge() {
+        return maxAge;
+    }
+
+    /**
+     * Checks that server confirmed the number of employees, so directory was
+     * not truncated.
+     * 
+     * @return <code>true</code> if all declared employees were received and
+     *         <code>false</code> otherwise.
+     */
+    public boolean isComplete() {
+        return !partial && totalCount >= 0 && totalCount == size;
+    }
+
+    /**
+     * Checks that some sources of directory were not received, so employees,
+     * which are missing from directory, may still exist.
+     * 
+     * @return <code>true</code> if directory is partial and
+     *         <code>false</code> otherwise.
+     */
+    public boolean isPartial() {
+        return partial;
+    }
+
+}
@@ -0,0 +1,229 @@
+/**
+ * Copyright (C) 2013 Anton Grytsenko (anthony.grytsenko@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grytsenko.coworkers.web;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.accounts.Account;
+import android.content.Context;
+import android.util.Log;
+
+/**
+ * Keeps the last directory in private file, so changed settings are applied
+ * to contacts without downloading directory again.
+ * 
+ * <p>
+ * Each employee is written as JSON object on separate line. Directory is
+ * written into temporary file, that replaces cache only after directory was
+ * written completely.
+ */
+public class DirectoryCache {
+
+    private static final String TAG = DirectoryCache.class.getName();
+
+    private static final String PREFIX = "directory-";
+    private static final String SUFFIX = ".json";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final String CHARSET = "UTF-8";
+
+    /**
+     * Writes directory into cache.
+     */
+    public static final class CacheWriter {
+
+        private final File temp;
+        private final File file;
+        private BufferedWriter writer;
+
+        private CacheWriter(File temp, File file) {
+            this.temp = temp;
+            this.file = file;
+            try {
+                writer = new BufferedWriter(new OutputStreamWriter(
+                        new FileOutputStream(temp), CHARSET));
+            } catch (IOException exception) {
+                Log.w(TAG, "Cache not opened.", exception);
+            }
+        }
+
+        /**
+         * Writes employee. If employee could not be written, then cache is
+         * not replaced.
+         * 
+         * @param employee
+         *            the employee to write.
+         */
+        public void write(Employee employee) {
+            if (writer == null) {
+                return;
+            }
+
+            try {
+                writer.write(employee.toJson().toString());
+                writer.newLine();
+            } catch (IOException exception) {
+                Log.w(TAG, "Employee not cached.", exception);
+                abort();
+            } catch (JSONException exception) {
+                Log.w(TAG, "Employee not cached.", exception);
+                abort();
+            }
+        }
+
+        /**
+         * Replaces cache by written directory.
+         */
+        public void commit() {
+            if (writer == null) {
+                return;
+            }
+
+            try {
+                writer.close();
+                writer = null;
+                if (!temp.renameTo(file)) {
+                    throw new IOException("Cache not replaced.");
+                }
+                Log.d(TAG, "Directory cached.");
+            } catch (IOException exception) {
+                Log.w(TAG, "Directory not cached.", exception);
+                temp.delete();
+            }
+        }
+
+        /**
+         * Discards written directory. Cache is kept as is.
+         */
+        public void abort() {
+            if (writer == null) {
+                return;
+            }
+
+            try {
+                writer.close();
+            } catch (IOException exception) {
+                Log.w(TAG, "Cache not closed.", exception);
+            }
+            writer = null;
+            temp.delete();
+        }
+
+    }
+
+    private File directory;
+
+    /**
+     * Creates cache.
+     * 
+     * @param context
+     *            the context to use.
+     */
+    public DirectoryCache(Context context) {
+        directory = context.getFilesDir();
+    }
+
+    /**
+     * Opens cache for writing.
+     * 
+     * @param account
+     *            the current user account.
+     * 
+     * @return the writer, that should be committed or aborted.
+     */
+    public CacheWriter open(Account account) {
+        File file = getFile(account);
+        File temp = new File(directory, file.getName() + TEMP_SUFFIX);
+        return new CacheWriter(temp, file);
+    }
+
+    /**
+     * Reads cached directory.
+     * 
+     * @param account
+     *            the current user account.
+     * 
+     * @return the list of employees or <code>null</code> if directory is not
+     *         cached.
+     */
+    public List<Employee> read(Account account) {
+        File file = getFile(account);
+        if (!file.exists()) {
+            return null;
+        }
+
+        StringPool pool = new StringPool();
+        List<Employee> employees = new ArrayList<Employee>();
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(file), CHARSET));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                employees.add(Employee.fromJson(new JSONObject(line), pool));
+            }
+            return employees;
+        } catch (IOException exception) {
+            Log.w(TAG, "Cache not read.", exception);
+            return null;
+        } catch (JSONException exception) {
+            Log.w(TAG, "Cache is corrupted.", exception);
+            file.delete();
+            return null;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException exception) {
+                    Log.w(TAG, "Cache not closed.", exception);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes cached directory, so data of coworkers is not kept after
+     * account was removed.
+     * 
+     * @param account
+     *            the removed or added account.
+     */
+    public void remove(Account account) {
+        File file = getFile(account);
+        if (file.exists() && !file.delete()) {
+            Log.w(TAG, "Cache not removed.");
+        }
+        new File(directory, file.getName() + TEMP_SUFFIX).delete();
+    }
+
+    private File getFile(Account account) {
+        String name = Integer.toHexString(account.name.hashCode());
+        return new File(directory, PREFIX + name + SUFFIX);
+    }
+
+}
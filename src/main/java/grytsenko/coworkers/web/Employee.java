@@ -17,6 +17,8 @@ package grytsenko.coworkers.web;
 
 import static java.lang.String.format;
 
+import java.io.IOException;
+import java.nio.charset.Charset;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -24,17 +26,27 @@ import java.util.Map;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import android.annotation.TargetApi;
 import android.content.ContentResolver;
 import android.content.ContentValues;
+import android.os.Build;
 import android.provider.ContactsContract.CommonDataKinds.Email;
 import android.provider.ContactsContract.CommonDataKinds.Im;
 import android.provider.ContactsContract.CommonDataKinds.Organization;
 import android.provider.ContactsContract.CommonDataKinds.Phone;
 import android.provider.ContactsContract.CommonDataKinds.StructuredName;
 import android.text.TextUtils;
+import android.util.JsonReader;
+import android.util.JsonToken;
 
 /**
  * Information about employee, that is provided by REST service.
+ * 
+ * <p>
+ * Directory may contain thousands of employees, so repeated values are shared
+ * through {@link StringPool}. Names, positions, departments and offices are
+ * shared as whole, email addresses and URLs of photos are split, so their
+ * domains and base URLs are shared.
  */
 public final class Employee {
 
@@ -46,6 +58,8 @@ public final class Employee {
     private static final String JSON_FIRST_NAME_NATIVE = "firstNameNative";
 
     private static final String JSON_POSITION = "position";
+    private static final String JSON_DEPARTMENT = "department";
+    private static final String JSON_OFFICE = "office";
 
     private static final String JSON_EMAIL = "email";
     private static final String JSON_MOBILE = "mobile";
@@ -53,6 +67,65 @@ public final class Employee {
 
     private static final String JSON_PHOTO = "photo";
 
+    /*
+     * Tags of fields in binary format.
+     */
+    private static final int FIELD_UID = 1;
+    private static final int FIELD_FIRST_NAME = 2;
+    private static final int FIELD_LAST_NAME = 3;
+    private static final int FIELD_FIRST_NAME_NATIVE = 4;
+    private static final int FIELD_LAST_NAME_NATIVE = 5;
+    private static final int FIELD_POSITION = 6;
+    private static final int FIELD_DEPARTMENT = 7;
+    private static final int FIELD_OFFICE = 8;
+    private static final int FIELD_EMAIL = 9;
+    private static final int FIELD_MOBILE = 10;
+    private static final int FIELD_SKYPE = 11;
+    private static final int FIELD_PHOTO = 12;
+
+    private static final int FIELD_HEADER = 3;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * The types of data, that are provided by employee.
+     * 
+     * @see #getContent(String, boolean)
+     */
+    public static final String[] DATA_KINDS = new String[] {
+            StructuredName.CONTENT_ITEM_TYPE, Organization.CONTENT_ITEM_TYPE,
+            Email.CONTENT_ITEM_TYPE, Phone.CONTENT_ITEM_TYPE,
+            Im.CONTENT_ITEM_TYPE };
+
+    /**
+     * Builds projection, that lists fields, which should be sent by REST
+     * service. Fields, that are not listed, are treated as empty.
+     * 
+     * @param nativeNames
+     *            indicates that names in native language are needed.
+     * @param photos
+     *            indicates that photos are needed.
+     * 
+     * @return the names of fields separated by comma.
+     */
+    public static String projection(boolean nativeNames, boolean photos) {
+        StringBuilder fields = new StringBuilder();
+        fields.append(JSON_UID).append(',').append(JSON_FIRST_NAME)
+                .append(',').append(JSON_LAST_NAME);
+        if (nativeNames) {
+            fields.append(',').append(JSON_FIRST_NAME_NATIVE).append(',')
+                    .append(JSON_LAST_NAME_NATIVE);
+        }
+        fields.append(',').append(JSON_POSITION).append(',')
+                .append(JSON_DEPARTMENT).append(',').append(JSON_OFFICE);
+        fields.append(',').append(JSON_EMAIL).append(',').append(JSON_MOBILE)
+                .append(',').append(JSON_SKYPE);
+        if (photos) {
+            fields.append(',').append(JSON_PHOTO);
+        }
+        return fields.toString();
+    }
+
     /**
      * Creates employee from JSON object.
      * 
@@ -65,32 +138,257 @@ public final class Employee {
      *             the data has invalid format.
      */
     public static Employee fromJson(JSONObject json) throws JSONException {
+        return fromJson(json, new StringPool());
+    }
+
+    /**
+     * Creates employee from JSON object. Repeated values are taken from pool.
+     * 
+     * @param json
+     *            the JSON object to parse.
+     * @param pool
+     *            the pool, that is shared by employees of directory.
+     * 
+     * @return the created employee.
+     * 
+     * @throws JSONException
+     *             the data has invalid format.
+     */
+    static Employee fromJson(JSONObject json, StringPool pool)
+            throws JSONException {
         Employee employee = new Employee();
 
         employee.uid = getMandatoryField(json, JSON_UID);
 
-        employee.firstName = getMandatoryField(json, JSON_FIRST_NAME);
-        employee.lastName = getMandatoryField(json, JSON_LAST_NAME);
+        employee.firstName = pool.get(getMandatoryField(json, JSON_FIRST_NAME));
+        employee.lastName = pool.get(getMandatoryField(json, JSON_LAST_NAME));
 
         if (!json.isNull(JSON_FIRST_NAME_NATIVE)
                 && !json.isNull(JSON_LAST_NAME_NATIVE)) {
-            employee.firstNameNative = getMandatoryField(json,
-                    JSON_FIRST_NAME_NATIVE);
-            employee.lastNameNative = getMandatoryField(json,
-                    JSON_LAST_NAME_NATIVE);
+            employee.firstNameNative = pool.get(getMandatoryField(json,
+                    JSON_FIRST_NAME_NATIVE));
+            employee.lastNameNative = pool.get(getMandatoryField(json,
+                    JSON_LAST_NAME_NATIVE));
         }
 
-        employee.position = getOptionalField(json, JSON_POSITION);
+        employee.position = pool.get(getOptionalField(json, JSON_POSITION));
+        employee.department = pool.get(getOptionalField(json,
+                JSON_DEPARTMENT));
+        employee.office = pool.get(getOptionalField(json, JSON_OFFICE));
 
-        employee.email = getOptionalField(json, JSON_EMAIL);
+        employee.setEmail(getOptionalField(json, JSON_EMAIL), pool);
         employee.mobile = getOptionalField(json, JSON_MOBILE);
         employee.skype = getOptionalField(json, JSON_SKYPE);
 
-        employee.photo = getOptionalField(json, JSON_PHOTO);
+        employee.setPhoto(getOptionalField(json, JSON_PHOTO), pool);
 
         return employee;
     }
 
+    /**
+     * Reads employee from JSON stream. Unknown fields are skipped.
+     * 
+     * @param reader
+     *            the reader, that is positioned at the beginning of JSON
+     *            object.
+     * @param pool
+     *            the pool, that is shared by employees of directory.
+     * 
+     * @return the read employee.
+     * 
+     * @throws IOException
+     *             if stream could not be read.
+     * @throws JSONException
+     *             the data has invalid format.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    static Employee fromJson(JsonReader reader, StringPool pool)
+            throws IOException, JSONException {
+        Employee employee = new Employee();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                continue;
+            }
+
+            if (JSON_UID.equals(name)) {
+                employee.uid = reader.nextString();
+            } else if (JSON_FIRST_NAME.equals(name)) {
+                employee.firstName = pool.get(reader.nextString());
+            } else if (JSON_LAST_NAME.equals(name)) {
+                employee.lastName = pool.get(reader.nextString());
+            } else if (JSON_FIRST_NAME_NATIVE.equals(name)) {
+                employee.firstNameNative = pool.get(reader.nextString());
+            } else if (JSON_LAST_NAME_NATIVE.equals(name)) {
+                employee.lastNameNative = pool.get(reader.nextString());
+            } else if (JSON_POSITION.equals(name)) {
+                employee.position = pool.get(reader.nextString());
+            } else if (JSON_DEPARTMENT.equals(name)) {
+                employee.department = pool.get(reader.nextString());
+            } else if (JSON_OFFICE.equals(name)) {
+                employee.office = pool.get(reader.nextString());
+            } else if (JSON_EMAIL.equals(name)) {
+                employee.setEmail(reader.nextString(), pool);
+            } else if (JSON_MOBILE.equals(name)) {
+                employee.mobile = reader.nextString();
+            } else if (JSON_SKYPE.equals(name)) {
+                employee.skype = reader.nextString();
+            } else if (JSON_PHOTO.equals(name)) {
+                employee.setPhoto(reader.nextString(), pool);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        checkMandatoryField(employee.uid, JSON_UID);
+        checkMandatoryField(employee.firstName, JSON_FIRST_NAME);
+        checkMandatoryField(employee.lastName, JSON_LAST_NAME);
+
+        if (employee.firstNameNative == null
+                || employee.lastNameNative == null) {
+            employee.firstNameNative = null;
+            employee.lastNameNative = null;
+        }
+
+        return employee;
+    }
+
+    /**
+     * Decodes employee from record in binary format. Unknown fields are
+     * skipped.
+     * 
+     * @param record
+     *            the buffer, that contains record.
+     * @param length
+     *            the length of record.
+     * @param pool
+     *            the pool, that is shared by employees of directory.
+     * 
+     * @return the decoded employee.
+     * 
+     * @throws IOException
+     *             the record has invalid format.
+     * 
+     * @see BinaryDecoder
+     */
+    static Employee fromBinary(byte[] record, int length, StringPool pool)
+            throws IOException {
+        Employee employee = new Employee();
+
+        int offset = 0;
+        while (offset < length) {
+            if (offset + FIELD_HEADER > length) {
+                throw new IOException("Truncated field.");
+            }
+            int tag = record[offset] & 0xff;
+            int size = ((record[offset + 1] & 0xff) << 8)
+                    | (record[offset + 2] & 0xff);
+            offset += FIELD_HEADER;
+            if (offset + size > length) {
+                throw new IOException("Truncated field.");
+            }
+            String value = new String(record, offset, size, UTF_8);
+            offset += size;
+
+            switch (tag) {
+            case FIELD_UID:
+                employee.uid = value;
+                break;
+            case FIELD_FIRST_NAME:
+                employee.firstName = pool.get(value);
+                break;
+            case FIELD_LAST_NAME:
+                employee.lastName = pool.get(value);
+                break;
+            case FIELD_FIRST_NAME_NATIVE:
+                employee.firstNameNative = pool.get(value);
+                break;
+            case FIELD_LAST_NAME_NATIVE:
+                employee.lastNameNative = pool.get(value);
+                break;
+            case FIELD_POSITION:
+                employee.position = pool.get(value);
+                break;
+            case FIELD_DEPARTMENT:
+                employee.department = pool.get(value);
+                break;
+            case FIELD_OFFICE:
+                employee.office = pool.get(value);
+                break;
+            case FIELD_EMAIL:
+                employee.setEmail(value, pool);
+                break;
+            case FIELD_MOBILE:
+                employee.mobile = value;
+                break;
+            case FIELD_SKYPE:
+                employee.skype = value;
+                break;
+            case FIELD_PHOTO:
+                employee.setPhoto(value, pool);
+                break;
+            default:
+                break;
+            }
+        }
+
+        checkMandatoryTag(employee.uid, FIELD_UID);
+        checkMandatoryTag(employee.firstName, FIELD_FIRST_NAME);
+        checkMandatoryTag(employee.lastName, FIELD_LAST_NAME);
+
+        if (employee.firstNameNative == null
+                || employee.lastNameNative == null) {
+            employee.firstNameNative = null;
+            employee.lastNameNative = null;
+        }
+
+        return employee;
+    }
+
+    /**
+     * Converts employee to JSON object, that may be read back.
+     * 
+     * @return the JSON object.
+     * 
+     * @throws JSONException
+     *             if employee could not be converted.
+     */
+    JSONObject toJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put(JSON_UID, uid);
+        json.put(JSON_FIRST_NAME, firstName);
+        json.put(JSON_LAST_NAME, lastName);
+        json.putOpt(JSON_FIRST_NAME_NATIVE, firstNameNative);
+        json.putOpt(JSON_LAST_NAME_NATIVE, lastNameNative);
+        json.putOpt(JSON_POSITION, position);
+        json.putOpt(JSON_DEPARTMENT, department);
+        json.putOpt(JSON_OFFICE, office);
+        json.putOpt(JSON_EMAIL, join(emailUser, emailDomain));
+        json.putOpt(JSON_MOBILE, mobile);
+        json.putOpt(JSON_SKYPE, skype);
+        json.putOpt(JSON_PHOTO, getPhoto());
+        return json;
+    }
+
+    private static void checkMandatoryField(String value, String name)
+            throws JSONException {
+        if (value == null) {
+            throw new JSONException(format("Field %s is mandatory.", name));
+        }
+    }
+
+    private static void checkMandatoryTag(String value, int tag)
+            throws IOException {
+        if (value == null) {
+            throw new IOException(format("Field with tag %d is mandatory.",
+                    tag));
+        }
+    }
+
     private static String getMandatoryField(JSONObject json, String name)
             throws JSONException {
         if (json.isNull(name)) {
@@ -128,12 +426,16 @@ public final class Employee {
     private String lastNameNative;
 
     private String position;
+    private String department;
+    private String office;
 
     private String mobile;
-    private String email;
+    private String emailUser;
+    private String emailDomain;
     private String skype;
 
-    private String photo;
+    private String photoBase;
+    private String photoName;
 
     private Employee() {
     }
@@ -147,6 +449,52 @@ public final class Employee {
         return uid;
     }
 
+    /**
+     * Returns data of the specified type for {@link ContentResolver}.
+     * 
+     * @param mime
+     *            the type of data, one of {@link #DATA_KINDS}.
+     * @param preferNative
+     *            shows that name in native language is preferred.
+     * 
+     * @return the set of values.
+     */
+    public ContentValues getContent(String mime, boolean preferNative) {
+        return getContent(mime, preferNative, new ContentValues());
+    }
+
+    /**
+     * Writes data of the specified type into the given set of values, so the
+     * same set can be reused for many employees.
+     * 
+     * @param mime
+     *            the type of data, one of {@link #DATA_KINDS}.
+     * @param preferNative
+     *            shows that name in native language is preferred.
+     * @param values
+     *            the set of values, that is cleared before it is filled.
+     * 
+     * @return the given set of values.
+     */
+    public ContentValues getContent(String mime, boolean preferNative,
+            ContentValues values) {
+        values.clear();
+        if (StructuredName.CONTENT_ITEM_TYPE.equals(mime)) {
+            putFullName(values, preferNative);
+        } else if (Organization.CONTENT_ITEM_TYPE.equals(mime)) {
+            putPosition(values);
+        } else if (Email.CONTENT_ITEM_TYPE.equals(mime)) {
+            putEmail(values);
+        } else if (Phone.CONTENT_ITEM_TYPE.equals(mime)) {
+            putMobile(values);
+        } else if (Im.CONTENT_ITEM_TYPE.equals(mime)) {
+            putSkype(values);
+        } else {
+            throw new IllegalArgumentException("Invalid type of data.");
+        }
+        return values;
+    }
+
     /**
      * Returns data about full name for {@link ContentResolver}.
      * 
@@ -156,17 +504,20 @@ public final class Employee {
      * @return the set of values.
      */
     public ContentValues getFullName(boolean preferNative) {
+        ContentValues values = new ContentValues();
+        putFullName(values, preferNative);
+        return values;
+    }
+
+    private void putFullName(ContentValues values, boolean preferNative) {
         if (preferNative && hasNative()) {
-            ContentValues values = new ContentValues();
             values.put(StructuredName.GIVEN_NAME, firstNameNative);
             values.put(StructuredName.FAMILY_NAME, lastNameNative);
-            return values;
+            return;
         }
 
-        ContentValues values = new ContentValues();
         values.put(StructuredName.GIVEN_NAME, firstName);
         values.put(StructuredName.FAMILY_NAME, lastName);
-        return values;
     }
 
     private boolean hasNative() {
@@ -181,9 +532,15 @@ public final class Employee {
      */
     public ContentValues getPosition() {
         ContentValues values = new ContentValues();
+        putPosition(values);
+        return values;
+    }
+
+    private void putPosition(ContentValues values) {
         values.put(Organization.TITLE, position);
+        values.put(Organization.DEPARTMENT, department);
+        values.put(Organization.OFFICE_LOCATION, office);
         values.put(Organization.TYPE, Organization.TYPE_WORK);
-        return values;
     }
 
     /**
@@ -193,11 +550,15 @@ public final class Employee {
      */
     public ContentValues getEmail() {
         ContentValues values = new ContentValues();
-        values.put(Email.DATA, email);
-        values.put(Email.TYPE, Email.TYPE_WORK);
+        putEmail(values);
         return values;
     }
 
+    private void putEmail(ContentValues values) {
+        values.put(Email.DATA, join(emailUser, emailDomain));
+        values.put(Email.TYPE, Email.TYPE_WORK);
+    }
+
     /**
      * Obtains data about mobile phone number for {@link ContentResolver}.
      * 
@@ -205,9 +566,13 @@ public final class Employee {
      */
     public ContentValues getMobile() {
         ContentValues values = new ContentValues();
+        putMobile(values);
+        return values;
+    }
+
+    private void putMobile(ContentValues values) {
         values.put(Phone.NUMBER, mobile);
         values.put(Phone.TYPE, Phone.TYPE_MOBILE);
-        return values;
     }
 
     /**
@@ -217,17 +582,77 @@ public final class Employee {
      */
     public ContentValues getSkype() {
         ContentValues values = new ContentValues();
+        putSkype(values);
+        return values;
+    }
+
+    private void putSkype(ContentValues values) {
         values.put(Im.DATA, skype);
         values.put(Im.PROTOCOL, Im.PROTOCOL_SKYPE);
         values.put(Im.TYPE, Im.TYPE_OTHER);
-        return values;
     }
 
     /**
      * Returns the URL of photo.
      */
     public String getPhoto() {
-        return photo;
+        return join(photoBase, photoName);
+    }
+
+    /**
+     * Checks that employee has photo.
+     */
+    public boolean hasPhoto() {
+        return !TextUtils.isEmpty(photoBase) || !TextUtils.isEmpty(photoName);
+    }
+
+    /**
+     * Checks that photo of employee has the specified URL. Unlike
+     * {@link #getPhoto()}, this method does not build URL.
+     * 
+     * @param url
+     *            the URL to compare (can be <code>null</code>).
+     * 
+     * @return <code>true</code> if URLs are equal and <code>false</code>
+     *         otherwise.
+     */
+    public boolean isPhotoUrl(String url) {
+        if (photoName == null || url == null) {
+            return photoName == null && url == null;
+        }
+        return url.length() == photoBase.length() + photoName.length()
+                && url.startsWith(photoBase) && url.endsWith(photoName);
+    }
+
+    private void setEmail(String email, StringPool pool) {
+        int split = email != null ? email.lastIndexOf('@') : -1;
+        if (split < 0) {
+            emailUser = email;
+            emailDomain = null;
+            return;
+        }
+
+        emailUser = new String(email.substring(0, split));
+        emailDomain = pool.get(email.substring(split));
+    }
+
+    private void setPhoto(String photo, StringPool pool) {
+        if (photo == null) {
+            photoBase = null;
+            photoName = null;
+            return;
+        }
+
+        int split = photo.lastIndexOf('/') + 1;
+        photoBase = pool.get(photo.substring(0, split));
+        photoName = new String(photo.substring(split));
+    }
+
+    private static String join(String prefix, String suffix) {
+        if (prefix == null) {
+            return suffix;
+        }
+        return suffix != null ? prefix + suffix : prefix;
     }
 
 }
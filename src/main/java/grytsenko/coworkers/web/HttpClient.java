@@ -18,11 +18,15 @@ package grytsenko.coworkers.web;
 import static java.lang.String.format;
 
 import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.List;
+import java.util.Map;
 
+import android.os.SystemClock;
 import android.util.Base64;
 import android.util.Log;
 
@@ -37,13 +41,55 @@ class HttpClient {
     private static final String TAG = HttpClient.class.getName();
 
     private static final String AUTHORIZATION = "Authorization";
+    private static final String ACCEPT = "Accept";
+
+    private static final String HEAD = "HEAD";
 
     private static final int BUFFER_SIZE = 1024 * 4;
 
+    /*
+     * Slow mirror fails on timeout, so the next one is tried.
+     */
+    private static final int CONNECT_TIMEOUT = 15 * 1000;
+    private static final int READ_TIMEOUT = 30 * 1000;
+
+    /**
+     * The estimated size of request line and headers, that are added by
+     * {@link HttpURLConnection}.
+     */
+    private static final int REQUEST_OVERHEAD = 200;
+
+    /**
+     * Reads body of response while it is downloaded.
+     */
+    interface BodyReader {
+
+        /**
+         * Reads body of response.
+         * 
+         * @param input
+         *            the stream to read.
+         * @param contentType
+         *            the type of content, that server sent (can be
+         *            <code>null</code>).
+         * 
+         * @throws IOException
+         *             if body could not be read.
+         */
+        void read(InputStream input, String contentType) throws IOException;
+
+    }
+
+    private TrafficMeter meter;
+
     /**
      * Creates a client.
+     * 
+     * @param meter
+     *            the meter to count traffic.
      */
-    public HttpClient() {
+    public HttpClient(TrafficMeter meter) {
+        this.meter = meter;
     }
 
     /**
@@ -52,55 +98,181 @@ class HttpClient {
      * @param url
      *            the URL of resource.
      * 
-     * @return the loaded data.
+     * @return the loaded response.
      * 
      * @throws WebException
      *             if resource not available.
      */
-    public byte[] download(String url) {
-        return download(url, null);
+    public HttpResponse download(String url) {
+        return execute(url, null, null, null);
     }
 
     /**
-     * Downloads the specified resource with restricted access. Uses basic
-     * authentication to access resource.
+     * Builds authorization for basic authentication.
      * 
-     * @param url
-     *            the URL of resource.
      * @param username
      *            the username to access.
      * @param password
      *            the password to access.
      * 
-     * @return the loaded data.
+     * @return the value of authorization header.
+     */
+    public static String basic(String username, String password) {
+        byte[] credentials = (username + ":" + password).getBytes();
+        byte[] encodedData = Base64.encode(credentials, Base64.NO_WRAP);
+        return "Basic " + new String(encodedData);
+    }
+
+    /**
+     * Builds authorization for session token.
+     * 
+     * @param token
+     *            the token, that was issued by server.
+     * 
+     * @return the value of authorization header.
+     */
+    public static String bearer(String token) {
+        return "Bearer " + token;
+    }
+
+    /**
+     * Downloads the specified resource with restricted access.
+     * 
+     * @param url
+     *            the URL of resource.
+     * @param authorization
+     *            the value of authorization header.
+     * @param accept
+     *            the types of content, that are accepted.
+     * 
+     * @return the loaded response.
+     * 
+     * @throws UnauthorizedException
+     *             if user not authorized.
+     * @throws WebException
+     *             if resource not available.
+     */
+    public HttpResponse download(String url, String authorization,
+            String accept) {
+        return execute(url, authorization, accept, null);
+    }
+
+    /**
+     * Downloads the specified resource with restricted access and passes its
+     * body to reader, while it is downloaded.
+     * 
+     * @param url
+     *            the URL of resource.
+     * @param authorization
+     *            the value of authorization header.
+     * @param accept
+     *            the types of content, that are accepted.
+     * @param reader
+     *            the reader for body of response.
+     * 
+     * @return the loaded response without body.
+     * 
+     * @throws UnauthorizedException
+     *             if user not authorized.
+     * @throws WebException
+     *             if resource not available.
+     */
+    public HttpResponse stream(String url, String authorization,
+            String accept, BodyReader reader) {
+        return execute(url, authorization, accept, reader);
+    }
+
+    /**
+     * Checks access to the specified resource without downloading it.
+     * 
+     * @param url
+     *            the URL of resource.
+     * @param authorization
+     *            the value of authorization header or <code>null</code> if
+     *            only availability of resource is checked.
+     * 
+     * @return the status code of response.
      * 
      * @throws WebException
-     *             if resource not available or user not authorized.
+     *             if resource not available.
      */
-    public byte[] download(String url, String username, String password) {
-        return download(url, encodeCredentials(username, password));
+    public int check(String url, String authorization) {
+        Log.d(TAG, format("Check %s.", url));
+        try {
+            HttpURLConnection connection = open(url);
+            connection.setRequestMethod(HEAD);
+
+            long bytesOut = REQUEST_OVERHEAD + url.length();
+            if (authorization != null) {
+                connection.setRequestProperty(AUTHORIZATION, authorization);
+                bytesOut += AUTHORIZATION.length() + authorization.length();
+            }
+            long bytesIn = 0;
+
+            try {
+                int statusCode = connection.getResponseCode();
+                bytesIn += countHeaders(connection);
+                return statusCode;
+            } finally {
+                meter.count(bytesOut, bytesIn);
+                connection.disconnect();
+            }
+        } catch (IOException exception) {
+            throw new WebException("Not available.", exception);
+        }
     }
 
-    private byte[] download(String url, String authorization) {
+    private HttpResponse execute(String url, String authorization,
+            String accept, BodyReader reader) {
         Log.d(TAG, format("Download %s.", url));
         try {
-            URL validUrl = new URL(url);
-            HttpURLConnection connection = (HttpURLConnection) validUrl
-                    .openConnection();
+            HttpURLConnection connection = open(url);
 
             if (authorization != null) {
                 connection.setRequestProperty(AUTHORIZATION, authorization);
             }
+            if (accept != null) {
+                connection.setRequestProperty(ACCEPT, accept);
+            }
+
+            long bytesOut = REQUEST_OVERHEAD + url.length();
+            if (authorization != null) {
+                bytesOut += AUTHORIZATION.length() + authorization.length();
+            }
+            if (accept != null) {
+                bytesOut += ACCEPT.length() + accept.length();
+            }
+            long bytesIn = 0;
 
             try {
+                long started = SystemClock.elapsedRealtime();
                 int statusCode = connection.getResponseCode();
+                long latency = SystemClock.elapsedRealtime() - started;
+                bytesIn += countHeaders(connection);
+                if (statusCode == HttpURLConnection.HTTP_UNAUTHORIZED) {
+                    throw new UnauthorizedException("Not authorized.");
+                }
                 if (statusCode != HttpURLConnection.HTTP_OK) {
                     throw new WebException("Invalid status.");
                 }
 
                 InputStream input = connection.getInputStream();
-                return readAll(input);
+                if (reader == null) {
+                    byte[] data = readAll(input);
+                    bytesIn += data.length;
+                    return HttpResponse.read(connection, data, latency);
+                }
+
+                CountingInputStream countingInput = new CountingInputStream(
+                        input);
+                try {
+                    reader.read(countingInput, connection.getContentType());
+                } finally {
+                    bytesIn += countingInput.getCount();
+                }
+                return HttpResponse.read(connection, null, latency);
             } finally {
+                meter.count(bytesOut, bytesIn);
                 connection.disconnect();
             }
         } catch (IOException exception) {
@@ -108,10 +280,26 @@ class HttpClient {
         }
     }
 
-    private static String encodeCredentials(String username, String password) {
-        byte[] credentials = (username + ":" + password).getBytes();
-        byte[] encodedData = Base64.encode(credentials, Base64.NO_WRAP);
-        return "Basic " + new String(encodedData);
+    private static HttpURLConnection open(String url) throws IOException {
+        URL validUrl = new URL(url);
+        HttpURLConnection connection = (HttpURLConnection) validUrl
+                .openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT);
+        connection.setReadTimeout(READ_TIMEOUT);
+        return connection;
+    }
+
+    private static long countHeaders(HttpURLConnection connection) {
+        long size = 0;
+        for (Map.Entry<String, List<String>> header : connection
+                .getHeaderFields().entrySet()) {
+            String name = header.getKey();
+            for (String value : header.getValue()) {
+                size += (name != null ? name.length() + 2 : 0)
+                        + value.length() + 2;
+            }
+        }
+        return size;
     }
 
     private static byte[] readAll(InputStream input) throws IOException {
@@ -126,4 +314,47 @@ class HttpClient {
         return output.toByteArray();
     }
 
+    /**
+     * Counts bytes, that were read from stream.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+
+        private long count;
+
+        public CountingInputStream(InputStream input) {
+            super(input);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                ++count;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length)
+                throws IOException {
+            int n = super.read(buffer, offset, length);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+    }
+
 }
@@ -0,0 +1,176 @@
+/**
+ * Copyright (C) 2013 Anton Grytsenko (anthony.grytsenko@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grytsenko.coworkers.web;
+
+import java.net.HttpURLConnection;
+import java.util.Locale;
+
+import android.text.TextUtils;
+
+/**
+ * Data and headers of response, that were downloaded by {@link HttpClient}.
+ */
+final class HttpResponse {
+
+    private static final String CACHE_CONTROL = "Cache-Control";
+    private static final String ETAG = "ETag";
+    private static final String TOTAL_COUNT = "X-Total-Count";
+    private static final String CONTENT_TYPE = "Content-Type";
+
+    private static final String MAX_AGE = "max-age=";
+    private static final String NO_CACHE = "no-cache";
+    private static final String NO_STORE = "no-store";
+
+    /**
+     * Reads headers of response from connection.
+     * 
+     * @param connection
+     *            the connection, that received response.
+     * @param data
+     *            the body of response.
+     * @param latency
+     *            the number of milliseconds before response was received.
+     * 
+     * @return the response.
+     */
+    public static HttpResponse read(HttpURLConnection connection, byte[] data,
+            long latency) {
+        String cacheControl = connection.getHeaderField(CACHE_CONTROL);
+        String etag = connection.getHeaderField(ETAG);
+        String totalCount = connection.getHeaderField(TOTAL_COUNT);
+        String contentType = connection.getHeaderField(CONTENT_TYPE);
+        return new HttpResponse(data, parseMaxAge(cacheControl), etag,
+                parseTotalCount(totalCount), contentType, latency);
+    }
+
+    /**
+     * Parses the value of <code>max-age</code> directive.
+     * 
+     * @return the number of seconds or <code>0</code> if response should not
+     *         be cached.
+     */
+    private static long parseMaxAge(String cacheControl) {
+        if (TextUtils.isEmpty(cacheControl)) {
+            return 0;
+        }
+
+        long maxAge = 0;
+        for (String directive : cacheControl.split(",")) {
+            String value = directive.trim().toLowerCase(Locale.US);
+            if (value.equals(NO_CACHE) || value.equals(NO_STORE)) {
+                return 0;
+            }
+            if (value.startsWith(MAX_AGE)) {
+                try {
+                    maxAge = Long.parseLong(value.substring(MAX_AGE.length()));
+                } catch (NumberFormatException exception) {
+                    maxAge = 0;
+                }
+            }
+        }
+        return Math.max(maxAge, 0);
+    }
+
+    /**
+     * Parses the number of entries, that server declared.
+     * 
+     * @return the number of entries or <code>-1</code> if server did not
+     *         declare it.
+     */
+    private static int parseTotalCount(String totalCount) {
+        if (TextUtils.isEmpty(totalCount)) {
+            return -1;
+        }
+
+        try {
+            return Math.max(Integer.parseInt(totalCount.trim()), -1);
+        } catch (NumberFormatException exception) {
+            return -1;
+        }
+    }
+
+    private byte[] data;
+    private long maxAge;
+    private String etag;
+    private int totalCount;
+    private String contentType;
+    private long latency;
+
+    private HttpResponse(byte[] data, long maxAge, String etag,
+            int totalCount, String contentType, long latency) {
+        this.data = data;
+        this.maxAge = maxAge;
+        this.etag = etag;
+        this.totalCount = totalCount;
+        this.contentType = contentType;
+        this.latency = latency;
+    }
+
+    /**
+     * Returns the body of response.
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * Returns the number of seconds during which response remains fresh.
+     * 
+     * @return the number of seconds or <code>0</code> if server did not
+     *         allow to cache response.
+     */
+    public long getMaxAge() {
+        return maxAge;
+    }
+
+    /**
+     * Returns the entity tag of response.
+     * 
+     * @return the entity tag or <code>null</code> if server did not send it.
+     */
+    public String getEtag() {
+        return etag;
+    }
+
+    /**
+     * Returns the number of entries, that server declared in response.
+     * 
+     * @return the number of entries or <code>-1</code> if server did not
+     *         declare it.
+     */
+    public int getTotalCount() {
+        return totalCount;
+    }
+
+    /**
+     * Returns the type of content of response.
+     * 
+     * @return the type of content or <code>null</code> if server did not
+     *         send it.
+     */
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * Returns the number of milliseconds, that passed before response was
+     * received.
+     */
+    public long getLatency() {
+        return latency;
+    }
+
+}
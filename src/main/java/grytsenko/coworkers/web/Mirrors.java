@@ -0,0 +1,176 @@
+/**
+ * Copyright (C) 2013 Anton Grytsenko (anthony.grytsenko@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grytsenko.coworkers.web;
+
+import static java.lang.String.format;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+/**
+ * Mirrors of REST service, that provide the same directory.
+ * 
+ * <p>
+ * Latency and failures of each mirror are kept in preferences, so the
+ * healthiest mirror is chosen at once in the next sync. Mirrors, that failed
+ * less times in a row, are preferred, then mirrors with less latency.
+ */
+public class Mirrors {
+
+    private static final String TAG = Mirrors.class.getName();
+
+    private static final String PREFERENCES = "mirrors";
+
+    private static final String LATENCY = ".latency";
+    private static final String FAILURES = ".failures";
+    private static final String CHECKED = ".checked";
+
+    /**
+     * The last latency is added to average with this weight.
+     */
+    private static final int SMOOTHING = 4;
+
+    private static final long HOUR = 60 * 60 * 1000;
+    private static final long DAY = 24 * HOUR;
+
+    private final List<String> urls;
+    private final SharedPreferences preferences;
+
+    /**
+     * Creates mirrors.
+     * 
+     * @param context
+     *            the context to use.
+     * @param urls
+     *            the URLs of mirrors in order of preference, if there are no
+     *            statistics yet.
+     */
+    public Mirrors(Context context, String[] urls) {
+        if (urls.length == 0) {
+            throw new IllegalArgumentException("No mirrors.");
+        }
+
+        this.urls = Collections.unmodifiableList(Arrays.asList(urls));
+        preferences = context.getSharedPreferences(PREFERENCES,
+                Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Orders mirrors from the healthiest one.
+     * 
+     * @return the URLs of mirrors.
+     */
+    public List<String> rank() {
+        List<String> ranked = new ArrayList<String>(urls);
+        if (ranked.size() > 1) {
+            Collections.sort(ranked, new Comparator<String>() {
+
+                @Override
+                public int compare(String left, String right) {
+                    int failures = compare(getFailures(left),
+                            getFailures(right));
+                    if (failures != 0) {
+                        return failures;
+                    }
+                    return compare(getLatency(left), getLatency(right));
+                }
+
+                private int compare(long left, long right) {
+                    return left < right ? -1 : (left > right ? 1 : 0);
+                }
+
+            });
+        }
+        return ranked;
+    }
+
+    /**
+     * Returns mirrors, that should be probed, because their statistics are
+     * outdated. Failed mirrors are probed more often, so they are used again
+     * soon after they recover.
+     * 
+     * @return the URLs of mirrors or empty list if there is single mirror.
+     */
+    public List<String> getStale() {
+        List<String> stale = new ArrayList<String>();
+        if (urls.size() < 2) {
+            return stale;
+        }
+
+        long now = System.currentTimeMillis();
+        for (String url : urls) {
+            long period = getFailures(url) > 0 ? HOUR : DAY;
+            if (now - preferences.getLong(url + CHECKED, 0) > period) {
+                stale.add(url);
+            }
+        }
+        return stale;
+    }
+
+    /**
+     * Records successful response of mirror.
+     * 
+     * @param url
+     *            the URL of mirror.
+     * @param latency
+     *            the number of milliseconds before response was received.
+     */
+    void succeeded(String url, long latency) {
+        long average = preferences.getLong(url + LATENCY, -1);
+        if (average >= 0) {
+            latency = (average * (SMOOTHING - 1) + latency) / SMOOTHING;
+        }
+        Log.d(TAG, format("Latency of %s is %d ms.", url, latency));
+
+        preferences.edit().putLong(url + LATENCY, latency)
+                .putInt(url + FAILURES, 0)
+                .putLong(url + CHECKED, System.currentTimeMillis()).commit();
+    }
+
+    /**
+     * Records failure of mirror.
+     * 
+     * @param url
+     *            the URL of mirror.
+     */
+    void failed(String url) {
+        int failures = getFailures(url) + 1;
+        Log.d(TAG, format("Mirror %s failed %d times.", url, failures));
+
+        preferences.edit().putInt(url + FAILURES, failures)
+                .putLong(url + CHECKED, System.currentTimeMillis()).commit();
+    }
+
+    private int getFailures(String url) {
+        return preferences.getInt(url + FAILURES, 0);
+    }
+
+    /**
+     * Returns average latency or maximum value, if it is not known yet.
+     */
+    private long getLatency(String url) {
+        long latency = preferences.getLong(url + LATENCY, -1);
+        return latency >= 0 ? latency : Long.MAX_VALUE;
+    }
+
+}
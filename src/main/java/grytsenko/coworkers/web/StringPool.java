@@ -0,0 +1,60 @@
+/**
+ * Copyright (C) 2013 Anton Grytsenko (anthony.grytsenko@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grytsenko.coworkers.web;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps single instance of each string, so equal values of different
+ * employees share memory. Pool is used while directory is parsed and then it
+ * is discarded.
+ */
+final class StringPool {
+
+    private final Map<String, String> strings = new HashMap<String, String>();
+
+    /**
+     * Returns the shared instance of string.
+     * 
+     * @param value
+     *            the string (can be <code>null</code>).
+     * 
+     * @return the shared instance or <code>null</code> if value is
+     *         <code>null</code>.
+     */
+    public String get(String value) {
+        if (value == null) {
+            return null;
+        }
+
+        String shared = strings.get(value);
+        if (shared == null) {
+            // Copy, so substring does not keep the whole source in memory.
+            shared = new String(value);
+            strings.put(shared, shared);
+        }
+        return shared;
+    }
+
+    /**
+     * Returns the number of distinct strings.
+     */
+    public int size() {
+        return strings.size();
+    }
+
+}
@@ -0,0 +1,148 @@
+/**
+ * Copyright (C) 2013 Anton Grytsenko (anthony.grytsenko@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package grytsenko.coworkers.web;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Counts bytes, that were sent and received by {@link HttpClient}.
+ * 
+ * <p>
+ * Bytes are counted separately for each type of network. Budget limits bytes,
+ * that may be received over limited networks, i.e. metered networks or while
+ * roaming. Traffic over other networks is not charged against budget.
+ */
+public final class TrafficMeter {
+
+    /**
+     * The value of budget, that means there is no limit.
+     */
+    public static final long UNLIMITED = 0;
+
+    private static final int IN = 0;
+    private static final int OUT = 1;
+
+    private Map<String, long[]> traffic = new HashMap<String, long[]>();
+
+    private String networkType;
+    private boolean limited;
+    private long budget = UNLIMITED;
+    private long used;
+
+    /**
+     * Creates a meter.
+     */
+    public TrafficMeter() {
+    }
+
+    /**
+     * Starts counting from zero.
+     * 
+     * @param networkType
+     *            the type of current network.
+     * @param limited
+     *            indicates that current network is limited by budget.
+     * @param budget
+     *            the number of bytes, that may be received over limited
+     *            networks, or {@link #UNLIMITED}.
+     */
+    public synchronized void reset(String networkType, boolean limited,
+            long budget) {
+        traffic.clear();
+
+        this.networkType = networkType;
+        this.limited = limited;
+        this.budget = budget;
+        used = 0;
+    }
+
+    /**
+     * Changes the current network. Budget is kept, so it applies again, when
+     * sync moves back to limited network.
+     * 
+     * @param networkType
+     *            the type of current network.
+     * @param limited
+     *            indicates that current network is limited by budget.
+     */
+    public synchronized void setNetwork(String networkType, boolean limited) {
+        this.networkType = networkType;
+        this.limited = limited;
+    }
+
+    /**
+     * Counts bytes of request and response.
+     * 
+     * @param bytesOut
+     *            the number of sent bytes.
+     * @param bytesIn
+     *            the number of received bytes.
+     */
+    synchronized void count(long bytesOut, long bytesIn) {
+        long[] counters = traffic.get(networkType);
+        if (counters == null) {
+            counters = new long[2];
+            traffic.put(networkType, counters);
+        }
+
+        counters[OUT] += bytesOut;
+        counters[IN] += bytesIn;
+        if (limited) {
+            used += bytesIn;
+        }
+    }
+
+    /**
+     * Checks that budget was used up.
+     * 
+     * @return <code>true</code> if no more bytes should be received over the
+     *         current network and <code>false</code> otherwise.
+     */
+    public synchronized boolean isExhausted() {
+        return limited && budget != UNLIMITED && used >= budget;
+    }
+
+    /**
+     * Returns the types of networks, that were used.
+     */
+    public synchronized String[] getNetworkTypes() {
+        return traffic.keySet().toArray(new String[traffic.size()]);
+    }
+
+    /**
+     * Returns the number of received bytes.
+     * 
+     * @param networkType
+     *            the type of network.
+     */
+    public synchronized long getBytesIn(String networkType) {
+        long[] counters = traffic.get(networkType);
+        return counters != null ? counters[IN] : 0;
+    }
+
+    /**
+     * Returns the number of sent bytes.
+     * 
+     * @param networkType
+     *            the type of network.
+     */
+    public synchronized long getBytesOut(String networkType) {
+        long[] counters = traffic.get(networkType);
+        return counters != null ? counters[OUT] : 0;
+    }
+
+}
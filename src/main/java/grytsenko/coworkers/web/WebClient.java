@@ -17,8 +17,18 @@ package grytsenko.coworkers.web;
 
 import static java.lang.String.format;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -26,9 +36,13 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import android.annotation.TargetApi;
 import android.graphics.Bitmap;
 import android.graphics.Bitmap.CompressFormat;
 import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.JsonReader;
 import android.util.Log;
 
 /**
@@ -41,76 +55,529 @@ public final class WebClient {
     private static final int RETRIES_MAX = 3;
     private static final int PHOTO_QUALITY = 100;
 
+    private static final String DIGEST_ALGORITHM = "MD5";
+    private static final String CHARSET = "UTF-8";
+
+    private static final String FIELDS = "fields=";
+    private static final String TOKEN_TYPES = "text/plain";
+
+    /**
+     * Binary format is preferred, JSON is kept for services, that do not
+     * support it.
+     */
+    private static final String DIRECTORY_TYPES = BinaryDecoder.CONTENT_TYPE
+            + ", application/json;q=0.5";
+
+    /**
+     * Handles employees, while directory is downloaded.
+     */
+    public interface EmployeeHandler {
+
+        /**
+         * Handles employee.
+         * 
+         * @param employee
+         *            the data about employee.
+         * 
+         * @throws InterruptedException
+         *             if download should be stopped.
+         */
+        void handle(Employee employee) throws InterruptedException;
+
+    }
+
+    /**
+     * Adds projection to URL of REST service, so service sends only the
+     * specified fields of employees.
+     * 
+     * @param url
+     *            the URL of REST service.
+     * @param fields
+     *            the names of fields separated by comma.
+     * 
+     * @return the URL with projection.
+     * 
+     * @see Employee#projection(boolean, boolean)
+     */
+    private static String withFields(String url, String fields) {
+        char separator = url.indexOf('?') < 0 ? '?' : '&';
+        return url + separator + FIELDS + fields;
+    }
+
     private HttpClient httpClient;
+    private TrafficMeter trafficMeter;
 
     /**
      * Creates a client.
      */
     public WebClient() {
-        httpClient = new HttpClient();
+        trafficMeter = new TrafficMeter();
+        httpClient = new HttpClient(trafficMeter);
     }
 
     /**
-     * Gets list of employees from REST service. Expected that this service
-     * returns data in JSON format.
+     * Returns the meter, that counts traffic of this client.
+     */
+    public TrafficMeter getTrafficMeter() {
+        return trafficMeter;
+    }
+
+    /**
+     * Checks credentials without downloading directory. Service is asked only
+     * for headers of directory. If mirror is not available, then the next one
+     * is asked.
+     * 
+     * @param mirrors
+     *            the mirrors of REST service.
+     * @param fields
+     *            the projection of directory.
+     * @param username
+     *            the username to check.
+     * @param password
+     *            the password to check.
+     * 
+     * @return <code>true</code> if credentials are valid or
+     *         <code>false</code> if service does not support such check, so
+     *         directory should be downloaded instead.
+     * 
+     * @throws UnauthorizedException
+     *             if credentials are not valid.
+     * @throws WebException
+     *             if service not available.
+     */
+    public boolean checkCredentials(Mirrors mirrors, String fields,
+            String username, String password) {
+        String authorization = HttpClient.basic(username, password);
+        for (String mirror : mirrors.rank()) {
+            String url = withFields(mirror, fields);
+            Log.d(TAG, format("Check credentials at %s.", url));
+
+            long started = SystemClock.elapsedRealtime();
+            int statusCode;
+            try {
+                statusCode = httpClient.check(url, authorization);
+            } catch (WebException exception) {
+                Log.d(TAG, "Mirror not available.", exception);
+                mirrors.failed(mirror);
+                continue;
+            }
+            if (isServerError(statusCode)) {
+                mirrors.failed(mirror);
+                continue;
+            }
+            mirrors.succeeded(mirror, SystemClock.elapsedRealtime() - started);
+
+            switch (statusCode) {
+            case HttpURLConnection.HTTP_OK:
+                return true;
+            case HttpURLConnection.HTTP_UNAUTHORIZED:
+                throw new UnauthorizedException("Not authorized.");
+            case HttpURLConnection.HTTP_BAD_METHOD:
+            case HttpURLConnection.HTTP_NOT_IMPLEMENTED:
+                Log.d(TAG, "Check not supported.");
+                return false;
+            default:
+                throw new WebException(format("Invalid status %d.",
+                        statusCode));
+            }
+        }
+        throw new WebException("No mirror available.");
+    }
+
+    /**
+     * Probes mirrors, which statistics are outdated, so the healthiest mirror
+     * is known before directory is downloaded. Credentials are not sent,
+     * mirror is available if it responds.
+     * 
+     * @param mirrors
+     *            the mirrors of REST service.
+     */
+    public void probe(Mirrors mirrors) {
+        for (String mirror : mirrors.getStale()) {
+            long started = SystemClock.elapsedRealtime();
+            try {
+                int statusCode = httpClient.check(mirror, null);
+                if (isServerError(statusCode)) {
+                    mirrors.failed(mirror);
+                    continue;
+                }
+                mirrors.succeeded(mirror, SystemClock.elapsedRealtime()
+                        - started);
+            } catch (WebException exception) {
+                Log.d(TAG, "Mirror not available.", exception);
+                mirrors.failed(mirror);
+            }
+        }
+    }
+
+    /**
+     * Checks that mirror failed to handle request. Method, that is not
+     * implemented, means that mirror works.
+     */
+    private static boolean isServerError(int statusCode) {
+        return statusCode >= HttpURLConnection.HTTP_INTERNAL_ERROR
+                && statusCode != HttpURLConnection.HTTP_NOT_IMPLEMENTED;
+    }
+
+    /**
+     * Obtains session token, so the following requests do not send password.
+     * Expected that service returns token as plain text.
      * 
      * @param url
-     *            the URL of REST service.
+     *            the URL of session service.
      * @param username
      *            the username to access.
      * @param password
      *            the password to access.
      * 
-     * @return the list of employees.
+     * @return the session token.
      * 
+     * @throws UnauthorizedException
+     *             if credentials are not valid.
      * @throws WebException
-     *             if data is not available or it has invalid format.
+     *             if service not available or token has invalid format.
      */
-    public List<Employee> getEmployees(String url, String username,
+    public String getSessionToken(String url, String username,
             String password) {
-        Log.d(TAG, format("Get employees from %s.", url));
-
-        byte[] data = downloadWithRetries(url, username, password);
+        Log.d(TAG, format("Get session token from %s.", url));
 
+        HttpResponse response = httpClient.download(url,
+                HttpClient.basic(username, password), TOKEN_TYPES);
+        String token;
         try {
-            return toEmployees(new String(data));
-        } catch (JSONException exception) {
-            throw new WebException("Invalid JSON.", exception);
+            token = new String(response.getData(), CHARSET).trim();
+        } catch (UnsupportedEncodingException exception) {
+            throw new WebException("Invalid token.", exception);
+        }
+        if (token.length() == 0) {
+            throw new WebException("Empty token.");
         }
+        return token;
     }
 
-    private byte[] downloadWithRetries(String url, String username,
-            String password) {
-        for (int i = 0; i < RETRIES_MAX; ++i) {
+    /**
+     * Gets directory of employees from REST service. Expected that this
+     * service returns data in binary format or in JSON format.
+     * 
+     * @param mirrors
+     *            the mirrors of REST service.
+     * @param fields
+     *            the projection of directory.
+     * @param username
+     *            the username to access.
+     * @param password
+     *            the password to access.
+     * 
+     * @return the directory of employees.
+     * 
+     * @throws UnauthorizedException
+     *             if credentials are not valid.
+     * @throws WebException
+     *             if data is not available or it has invalid format.
+     */
+    public Directory getDirectory(Mirrors mirrors, String fields,
+            String username, String password) {
+        return downloadDirectory(mirrors, fields,
+                HttpClient.basic(username, password));
+    }
+
+    /**
+     * Gets directory of employees from REST service using session token.
+     * 
+     * @param mirrors
+     *            the mirrors of REST service.
+     * @param fields
+     *            the projection of directory.
+     * @param token
+     *            the session token.
+     * 
+     * @return the directory of employees.
+     * 
+     * @throws UnauthorizedException
+     *             if token is not valid anymore.
+     * @throws WebException
+     *             if data is not available or it has invalid format.
+     * 
+     * @see #getSessionToken(String, String, String)
+     */
+    public Directory getDirectory(Mirrors mirrors, String fields,
+            String token) {
+        return downloadDirectory(mirrors, fields, HttpClient.bearer(token));
+    }
+
+    private Directory downloadDirectory(Mirrors mirrors, String fields,
+            String authorization) {
+        HttpResponse response = downloadWithRetries(mirrors, fields,
+                authorization);
+        byte[] data = response.getData();
+
+        String version = response.getEtag();
+        if (version == null) {
+            version = toHex(newDigest().digest(data));
+        }
+
+        List<Employee> employees;
+        if (BinaryDecoder.isBinary(response.getContentType())) {
             try {
-                return httpClient.download(url, username, password);
+                employees = toEmployees(data);
+            } catch (IOException exception) {
+                throw new WebException("Invalid data.", exception);
+            }
+        } else {
+            try {
+                employees = toEmployees(new String(data));
+            } catch (JSONException exception) {
+                throw new WebException("Invalid JSON.", exception);
+            }
+        }
+        return new Directory(employees, version, response.getMaxAge(),
+                response.getTotalCount());
+    }
+
+    /**
+     * Downloads directory from the healthiest mirror. If download fails, then
+     * the next mirror is tried.
+     */
+    private HttpResponse downloadWithRetries(Mirrors mirrors, String fields,
+            String authorization) {
+        List<String> ranked = mirrors.rank();
+        int attempts = Math.max(RETRIES_MAX, ranked.size());
+        for (int i = 0; i < attempts; ++i) {
+            String mirror = ranked.get(i % ranked.size());
+            String url = withFields(mirror, fields);
+            Log.d(TAG, format("Get employees from %s.", url));
+            try {
+                HttpResponse response = httpClient.download(url,
+                        authorization, DIRECTORY_TYPES);
+                mirrors.succeeded(mirror, response.getLatency());
+                return response;
+            } catch (UnauthorizedException exception) {
+                throw exception;
             } catch (WebException exception) {
                 Log.d(TAG, "Service not available.", exception);
+                mirrors.failed(mirror);
             }
         }
         throw new WebException("Too many retries.");
     }
 
+    /**
+     * Streams directory of employees from REST service. Each employee is
+     * passed to handler as soon as it is parsed, so handler works while the
+     * rest of directory is downloaded.
+     * 
+     * <p>
+     * If download fails, then it is retried from the next mirror and handler
+     * receives the same employees again.
+     * 
+     * @param mirrors
+     *            the mirrors of REST service.
+     * @param fields
+     *            the projection of directory.
+     * @param token
+     *            the session token.
+     * @param handler
+     *            the handler for employees.
+     * 
+     * @return the directory without list of employees.
+     * 
+     * @throws UnauthorizedException
+     *             if token is not valid anymore.
+     * @throws WebException
+     *             if data is not available or it has invalid format.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public Directory streamDirectory(Mirrors mirrors, String fields,
+            String token, EmployeeHandler handler) {
+        String authorization = HttpClient.bearer(token);
+
+        List<String> ranked = mirrors.rank();
+        int attempts = Math.max(RETRIES_MAX, ranked.size());
+        for (int i = 0; i < attempts; ++i) {
+            String mirror = ranked.get(i % ranked.size());
+            String url = withFields(mirror, fields);
+            Log.d(TAG, format("Stream employees from %s.", url));
+
+            DirectoryReader reader = new DirectoryReader(handler);
+            try {
+                HttpResponse response = httpClient.stream(url, authorization,
+                        DIRECTORY_TYPES, reader);
+                mirrors.succeeded(mirror, response.getLatency());
+                Log.d(TAG, format("Parsed %d, skipped %d.", reader.numParsed,
+                        reader.numSkipped));
+
+                String version = response.getEtag();
+                if (version == null) {
+                    version = toHex(reader.digest.digest());
+                }
+                return new Directory(reader.numParsed, version,
+                        response.getMaxAge(), response.getTotalCount());
+            } catch (UnauthorizedException exception) {
+                throw exception;
+            } catch (WebException exception) {
+                if (isInterrupted(exception)) {
+                    throw exception;
+                }
+                Log.d(TAG, "Service not available.", exception);
+                mirrors.failed(mirror);
+            }
+        }
+        throw new WebException("Too many retries.");
+    }
+
+    /**
+     * Checks that download was interrupted by handler. Timeout of socket is
+     * failure of mirror.
+     */
+    private static boolean isInterrupted(WebException exception) {
+        Throwable cause = exception.getCause();
+        return cause instanceof InterruptedIOException
+                && !(cause instanceof SocketTimeoutException);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException exception) {
+            throw new IllegalStateException("Digest not supported.", exception);
+        }
+    }
+
+    private static String toHex(byte[] hash) {
+        StringBuilder hex = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            hex.append(format("%02x", b & 0xff));
+        }
+        return hex.toString();
+    }
+
     private static List<Employee> toEmployees(String json) throws JSONException {
+        long started = SystemClock.elapsedRealtime();
         List<Employee> employees = new ArrayList<Employee>();
 
         int numSkipped = 0;
+        StringPool pool = new StringPool();
         JSONArray employeesJson = new JSONArray(json);
         for (int i = 0; i < employeesJson.length(); ++i) {
             JSONObject employeeJson = employeesJson.getJSONObject(i);
             try {
-                employees.add(Employee.fromJson(employeeJson));
+                employees.add(Employee.fromJson(employeeJson, pool));
             } catch (JSONException exception) {
                 Log.d(TAG, "Inconsistent data.", exception);
                 ++numSkipped;
             }
         }
-        Log.d(TAG,
-                format("Parsed %d, skipped %d.", employees.size(), numSkipped));
+        Log.d(TAG, format("Parsed %d, skipped %d, shared %d values in %d ms.",
+                employees.size(), numSkipped, pool.size(),
+                SystemClock.elapsedRealtime() - started));
+
+        return employees;
+    }
+
+    private static List<Employee> toEmployees(byte[] data) throws IOException {
+        long started = SystemClock.elapsedRealtime();
+        List<Employee> employees = new ArrayList<Employee>();
+
+        int numSkipped = 0;
+        StringPool pool = new StringPool();
+        BinaryDecoder decoder = new BinaryDecoder(new ByteArrayInputStream(
+                data), pool);
+        while (decoder.next()) {
+            try {
+                employees.add(decoder.getEmployee());
+            } catch (IOException exception) {
+                Log.d(TAG, "Inconsistent data.", exception);
+                ++numSkipped;
+            }
+        }
+        Log.d(TAG, format("Decoded %d, skipped %d, shared %d values in %d ms.",
+                employees.size(), numSkipped, pool.size(),
+                SystemClock.elapsedRealtime() - started));
 
         return employees;
     }
 
+    /**
+     * Parses employees while directory is downloaded.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static class DirectoryReader implements HttpClient.BodyReader {
+
+        private EmployeeHandler handler;
+        private MessageDigest digest;
+        private StringPool pool = new StringPool();
+
+        private int numParsed;
+        private int numSkipped;
+
+        public DirectoryReader(EmployeeHandler handler) {
+            this.handler = handler;
+            digest = newDigest();
+        }
+
+        @Override
+        public void read(InputStream input, String contentType)
+                throws IOException {
+            DigestInputStream digestInput = new DigestInputStream(input,
+                    digest);
+            if (BinaryDecoder.isBinary(contentType)) {
+                readBinary(digestInput);
+            } else {
+                readJson(digestInput);
+            }
+        }
+
+        private void readBinary(InputStream input) throws IOException {
+            BinaryDecoder decoder = new BinaryDecoder(input, pool);
+            while (decoder.next()) {
+                Employee employee;
+                try {
+                    employee = decoder.getEmployee();
+                } catch (IOException exception) {
+                    Log.d(TAG, "Inconsistent data.", exception);
+                    ++numSkipped;
+                    continue;
+                }
+                handle(employee);
+            }
+        }
+
+        private void readJson(InputStream input) throws IOException {
+            JsonReader reader = new JsonReader(new InputStreamReader(input,
+                    CHARSET));
+
+            // Reader fails on unexpected token, for example if directory is
+            // not an array or value of field is not a string.
+            try {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    Employee employee;
+                    try {
+                        employee = Employee.fromJson(reader, pool);
+                    } catch (JSONException exception) {
+                        Log.d(TAG, "Inconsistent data.", exception);
+                        ++numSkipped;
+                        continue;
+                    }
+                    handle(employee);
+                }
+                reader.endArray();
+            } catch (IllegalStateException exception) {
+                throw new IOException("Invalid JSON.", exception);
+            }
+        }
+
+        private void handle(Employee employee) throws IOException {
+            try {
+                handler.handle(employee);
+                ++numParsed;
+            } catch (InterruptedException exception) {
+                throw new InterruptedIOException("Download interrupted.");
+            }
+        }
+
+    }
+
     /**
      * Gets photo of employee.
      * 
@@ -125,7 +592,7 @@ public final class WebClient {
     public byte[] getPhoto(String url) {
         Log.d(TAG, format("Get photo from %s.", url));
 
-        byte[] data = httpClient.download(url);
+        byte[] data = httpClient.download(url).getData();
 
         try {
             return toPng(data);